@@ -1,3 +1,5 @@
+import org.jetbrains.intellij.platform.gradle.TestFrameworkType
+
 plugins {
     id("java")
     id("jacoco")
@@ -18,7 +20,12 @@ dependencies {
         intellijIdeaCommunity("2024.2")
         bundledPlugin("com.intellij.java")
         pluginModule(implementation("io.github.sibmaks.jjtemplate:jjtemplate:0.8.0"))
+        testFramework(TestFrameworkType.Platform)
     }
+    testImplementation("org.junit.jupiter:junit-jupiter:5.11.4")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    // the platform test framework still links against JUnit 4
+    testRuntimeOnly("junit:junit:4.13.2")
 }
 
 intellijPlatform {
@@ -37,8 +44,87 @@ group = "${project.property("group")}"
 
 val targetJavaVersion = (project.property("jdk_version") as String).toInt()
 
+val functionCatalogDir = layout.buildDirectory.dir("generated/function-catalog")
+
+// Built-in functions are read from the jjtemplate jar once at build time,
+// so the plugin does not have to scan and instantiate them in the IDE.
+// TemplateFunction only exposes a namespace and a name: the jar carries no descriptions or arities,
+// so the description column stays empty and the documentation shows the qualified name alone.
+val generateFunctionCatalog by tasks.registering {
+    description = "Generates the catalog of JJTemplate built-in functions."
+    val runtimeClasspath = configurations.runtimeClasspath
+    inputs.files(runtimeClasspath)
+    outputs.dir(functionCatalogDir)
+    doLast {
+        val packagePath = "io/github/sibmaks/jjtemplate/compiler/runtime/fun/"
+        val files = runtimeClasspath.get().files
+        val urls = files.map { it.toURI().toURL() }.toTypedArray()
+        val failures = mutableListOf<String>()
+        val lines = java.net.URLClassLoader(urls, ClassLoader.getPlatformClassLoader()).use { loader ->
+            val functionType = loader.loadClass("io.github.sibmaks.jjtemplate.compiler.runtime.fun.TemplateFunction")
+            val getNamespace = functionType.getMethod("getNamespace")
+            val getName = functionType.getMethod("getName")
+            files.filter { it.name.endsWith(".jar") }
+                .flatMap { jar ->
+                    java.util.zip.ZipFile(jar).use { zip ->
+                        zip.entries().asSequence()
+                            .map { it.name }
+                            .filter { it.startsWith(packagePath) && it.endsWith(".class") && !it.contains('$') }
+                            .toList()
+                    }
+                }
+                .mapNotNull { entry ->
+                    val className = entry.removeSuffix(".class").replace('/', '.')
+                    try {
+                        val type = loader.loadClass(className)
+                        if (!functionType.isAssignableFrom(type)
+                            || type.isInterface
+                            || java.lang.reflect.Modifier.isAbstract(type.modifiers)
+                        ) {
+                            return@mapNotNull null
+                        }
+                        val constructor = type.getDeclaredConstructor()
+                        constructor.trySetAccessible()
+                        val function = constructor.newInstance()
+                        val namespace = getNamespace.invoke(function) as String? ?: ""
+                        val name = getName.invoke(function) as String
+                        "$namespace\t$name\t"
+                    } catch (e: ReflectiveOperationException) {
+                        failures.add("$className: $e")
+                        null
+                    } catch (e: LinkageError) {
+                        failures.add("$className: $e")
+                        null
+                    }
+                }
+                .distinct()
+                .sorted()
+        }
+        failures.forEach { logger.warn("Skipped JJTemplate function class $it") }
+        if (lines.isEmpty()) {
+            val details = failures.joinToString(separator = "\n", prefix = "\n")
+            throw GradleException("No JJTemplate built-in functions found in $packagePath$details")
+        }
+        val catalog = functionCatalogDir.get()
+            .file("io/github/sibmaks/jjtemplate/idea/docs/functions.tsv")
+            .asFile
+        catalog.parentFile.mkdirs()
+        catalog.writeText(lines.joinToString(separator = "\n", postfix = "\n"))
+    }
+}
+
+sourceSets {
+    main {
+        resources.srcDir(generateFunctionCatalog)
+    }
+}
+
 tasks {
     withType<JavaCompile>().configureEach {
         options.release.set(targetJavaVersion)
     }
+
+    test {
+        useJUnitPlatform()
+    }
 }
\ No newline at end of file
@@ -1,6 +1,5 @@
 package io.github.sibmaks.jjtemplate.idea.actions;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
@@ -9,13 +8,13 @@ import com.intellij.openapi.actionSystem.CommonDataKeys;
 import com.intellij.openapi.ide.CopyPasteManager;
 import com.intellij.openapi.ui.Messages;
 import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateFileType;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateJson;
 import org.jetbrains.annotations.NotNull;
 
 import java.awt.datatransfer.StringSelection;
 
 public final class CopyMinifiedJsonAction extends AnAction {
-    private static final ObjectMapper MAPPER = new ObjectMapper()
-            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectMapper MAPPER = JjtemplateJson.MAPPER;
 
     @Override
     public void actionPerformed(@NotNull AnActionEvent event) {
@@ -0,0 +1,63 @@
+package io.github.sibmaks.jjtemplate.idea.actions;
+
+import com.intellij.find.FindManager;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.psi.PsiDocumentManager;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateContextPath;
+import io.github.sibmaks.jjtemplate.idea.navigation.JjtemplateContextPathElement;
+import org.jetbrains.annotations.NotNull;
+
+public final class FindTemplatesReadingPathAction extends AnAction {
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        var project = event.getProject();
+        if (project == null) {
+            return;
+        }
+        var input = Messages.showInputDialog(
+                project,
+                "Context path (for example .order.customer.id):",
+                "Templates Reading This Path",
+                null,
+                pathAtCaret(event),
+                null
+        );
+        if (input == null) {
+            return;
+        }
+        var path = JjtemplateContextPath.normalize(input);
+        if (path.isEmpty()) {
+            return;
+        }
+        var file = event.getData(CommonDataKeys.PSI_FILE);
+        FindManager.getInstance(project).findUsages(new JjtemplateContextPathElement(project, file, path));
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent event) {
+        event.getPresentation().setEnabledAndVisible(event.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    private static String pathAtCaret(@NotNull AnActionEvent event) {
+        var editor = event.getData(CommonDataKeys.EDITOR);
+        var file = event.getData(CommonDataKeys.PSI_FILE);
+        if (editor == null || file == null || !PsiDocumentManager.getInstance(file.getProject()).isCommitted(editor.getDocument())) {
+            return "";
+        }
+        var reference = file.findReferenceAt(editor.getCaretModel().getOffset());
+        if (reference != null && reference.resolve() instanceof JjtemplateContextPathElement contextPath) {
+            return contextPath.getName();
+        }
+        return "";
+    }
+}
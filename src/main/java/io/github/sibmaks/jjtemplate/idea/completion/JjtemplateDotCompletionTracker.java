@@ -0,0 +1,44 @@
+package io.github.sibmaks.jjtemplate.idea.completion;
+
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps the cached dot completion of a document valid while only the identifier typed after the dot changes, so
+ * narrowing the prefix keystroke by keystroke reuses the candidates; any other edit drops them.
+ */
+public final class JjtemplateDotCompletionTracker implements DocumentListener {
+
+    @Override
+    public void documentChanged(@NotNull DocumentEvent event) {
+        var document = event.getDocument();
+        var cached = document.getUserData(JjtemplateCompletionContributor.DOT_COMPLETION_KEY);
+        if (cached == null) {
+            return;
+        }
+        var offset = event.getOffset();
+        var insidePrefix = cached.modificationStamp() == event.getOldTimeStamp()
+                && offset > cached.dotOffset()
+                && offset + event.getOldLength() <= cached.prefixEnd()
+                && isIdentifier(event.getNewFragment());
+        if (!insidePrefix) {
+            document.putUserData(JjtemplateCompletionContributor.DOT_COMPLETION_KEY, null);
+            return;
+        }
+        var prefixEnd = cached.prefixEnd() + event.getNewLength() - event.getOldLength();
+        document.putUserData(
+                JjtemplateCompletionContributor.DOT_COMPLETION_KEY,
+                cached.withStamp(document.getModificationStamp(), prefixEnd)
+        );
+    }
+
+    private static boolean isIdentifier(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!JjtemplateCompletionContributor.isIdentifierChar(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
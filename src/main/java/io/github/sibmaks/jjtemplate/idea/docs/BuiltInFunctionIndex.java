@@ -1,14 +1,28 @@
 package io.github.sibmaks.jjtemplate.idea.docs;
 
-import io.github.sibmaks.jjtemplate.compiler.runtime.fun.TemplateFunction;
-
-import java.lang.reflect.Modifier;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
+/**
+ * Built-in functions of the JJTemplate runtime, read on first use from the catalog generated at build time.
+ * Besides the flat list sorted by lookup key, functions are bucketed by namespace and sorted by name, so name
+ * lookups are binary searches over a text region and do not allocate.
+ */
 public final class BuiltInFunctionIndex {
-    private static final String BASE_PACKAGE = "io.github.sibmaks.jjtemplate.compiler.runtime.fun";
+    private static final String CATALOG_RESOURCE = "functions.tsv";
+    private static final Comparator<BuiltInFunctionInfo> BY_NAME = Comparator.comparing(BuiltInFunctionInfo::name)
+            .thenComparing(BuiltInFunctionInfo::lookupKey);
     private static final List<BuiltInFunctionInfo> FUNCTIONS = loadFunctions();
-    private static final Map<String, BuiltInFunctionInfo> BY_LOOKUP = buildLookup(FUNCTIONS);
+    private static final BuiltInFunctionInfo[] ALL_BY_NAME = sortedByName(FUNCTIONS);
+    private static final String[] NAMESPACES = FUNCTIONS.stream()
+            .map(BuiltInFunctionInfo::namespace)
+            .distinct()
+            .sorted()
+            .toArray(String[]::new);
+    private static final BuiltInFunctionInfo[][] BUCKETS = buildBuckets(FUNCTIONS, NAMESPACES);
 
     private BuiltInFunctionIndex() {
     }
@@ -21,115 +35,118 @@ public final class BuiltInFunctionIndex {
         if (key == null || key.isBlank()) {
             return null;
         }
-        var direct = BY_LOOKUP.get(key);
-        if (direct != null) {
-            return direct;
-        }
-        return BY_LOOKUP.get(key.replace("::", ":"));
+        return find(key, 0, key.length());
     }
 
-    private static Map<String, BuiltInFunctionInfo> buildLookup(List<BuiltInFunctionInfo> functions) {
-        var result = new HashMap<String, BuiltInFunctionInfo>();
-        for (var function : functions) {
-            result.putIfAbsent(function.lookupKey(), function);
-            result.putIfAbsent(function.lookupKey().replace("::", ":"), function);
-            result.putIfAbsent(function.name(), function);
+    /**
+     * Resolves {@code name}, {@code namespace:name} or {@code namespace::name} written in {@code text} between
+     * {@code start} and {@code end}. A bare name of a namespaced function resolves as well.
+     */
+    public static BuiltInFunctionInfo find(CharSequence text, int start, int end) {
+        var separator = start;
+        while (separator < end && text.charAt(separator) != ':') {
+            separator++;
+        }
+        if (separator == end) {
+            var index = lowerBound(ALL_BY_NAME, text, start, end);
+            return index < ALL_BY_NAME.length && compare(ALL_BY_NAME[index].name(), text, start, end) == 0
+                    ? ALL_BY_NAME[index]
+                    : null;
+        }
+        var bucket = findBucket(text, start, separator);
+        if (bucket == null || separator == start) {
+            return null;
         }
-        return Collections.unmodifiableMap(result);
+        var nameStart = separator + 1 < end && text.charAt(separator + 1) == ':' ? separator + 2 : separator + 1;
+        var index = lowerBound(bucket, text, nameStart, end);
+        return index < bucket.length && compare(bucket[index].name(), text, nameStart, end) == 0 ? bucket[index] : null;
     }
 
-    @SuppressWarnings("unchecked")
-    private static List<BuiltInFunctionInfo> loadFunctions() {
-        var result = new ArrayList<BuiltInFunctionInfo>();
-        for (var type : findClasses(BASE_PACKAGE)) {
-            if (!TemplateFunction.class.isAssignableFrom(type) || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
-                continue;
-            }
-            try {
-                var functionType = (Class<TemplateFunction<?>>) type;
-                var constructor = functionType.getDeclaredConstructor();
-                constructor.setAccessible(true);
-                var function = constructor.newInstance();
-                var namespace = Optional.ofNullable(function.getNamespace()).orElse("");
-                var name = function.getName();
-                var lookupKey = namespace.isEmpty() ? name : namespace + "::" + name;
-                result.add(new BuiltInFunctionInfo(lookupKey, namespace, name, "Built-in JJTemplate function."));
-            } catch (Throwable ignored) {
-                // ignore non-instantiable classes
+    private static BuiltInFunctionInfo[] findBucket(CharSequence text, int start, int end) {
+        var low = 0;
+        var high = NAMESPACES.length - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            var comparison = compare(NAMESPACES[mid], text, start, end);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return BUCKETS[mid];
             }
         }
-        result.sort(Comparator.comparing(BuiltInFunctionInfo::lookupKey));
-        return Collections.unmodifiableList(result);
+        return null;
     }
 
-    private static List<Class<?>> findClasses(String basePackage) {
-        var classes = new ArrayList<Class<?>>();
-        var path = basePackage.replace('.', '/');
-        try {
-            var resources = Thread.currentThread().getContextClassLoader().getResources(path);
-            while (resources.hasMoreElements()) {
-                var resource = resources.nextElement();
-                if ("file".equals(resource.getProtocol())) {
-                    var directory = new java.io.File(resource.toURI());
-                    collectFromDirectory(directory, basePackage, classes);
-                    continue;
-                }
-                if ("jar".equals(resource.getProtocol())) {
-                    collectFromJar(resource.getPath(), path, classes);
-                }
+    // first function whose name is not less than the region
+    private static int lowerBound(BuiltInFunctionInfo[] sorted, CharSequence text, int start, int end) {
+        var low = 0;
+        var high = sorted.length;
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (compare(sorted[mid].name(), text, start, end) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-        } catch (Exception ignored) {
-            return classes;
         }
-        return classes;
+        return low;
     }
 
-    private static void collectFromJar(String resourcePath, String packagePath, List<Class<?>> classes) {
-        var separator = resourcePath.indexOf("!");
-        if (separator < 0) {
-            return;
-        }
-        var jarPath = resourcePath.substring(5, separator);
-        try (var jar = new java.util.jar.JarFile(jarPath)) {
-            var entries = jar.entries();
-            while (entries.hasMoreElements()) {
-                var entry = entries.nextElement();
-                var entryName = entry.getName();
-                if (!entryName.startsWith(packagePath) || !entryName.endsWith(".class") || entryName.contains("$")) {
-                    continue;
-                }
-                var className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
-                try {
-                    classes.add(Class.forName(className));
-                } catch (Throwable ignored) {
-                    // ignore loading failures
-                }
+    private static int compare(String value, CharSequence text, int start, int end) {
+        var length = Math.min(value.length(), end - start);
+        for (int i = 0; i < length; i++) {
+            var difference = value.charAt(i) - text.charAt(start + i);
+            if (difference != 0) {
+                return difference;
             }
-        } catch (Exception ignored) {
-            // ignore loading failures
         }
+        return value.length() - (end - start);
+    }
+
+    private static BuiltInFunctionInfo[] sortedByName(List<BuiltInFunctionInfo> functions) {
+        var result = functions.toArray(BuiltInFunctionInfo[]::new);
+        Arrays.sort(result, BY_NAME);
+        return result;
     }
 
-    private static void collectFromDirectory(java.io.File directory, String basePackage, List<Class<?>> classes) {
-        var files = directory.listFiles();
-        if (files == null) {
-            return;
+    private static BuiltInFunctionInfo[][] buildBuckets(List<BuiltInFunctionInfo> functions, String[] namespaces) {
+        var result = new BuiltInFunctionInfo[namespaces.length][];
+        for (int i = 0; i < namespaces.length; i++) {
+            var namespace = namespaces[i];
+            result[i] = functions.stream()
+                    .filter(function -> function.namespace().equals(namespace))
+                    .sorted(BY_NAME)
+                    .toArray(BuiltInFunctionInfo[]::new);
         }
-        for (var file : files) {
-            if (file.isDirectory()) {
-                collectFromDirectory(file, basePackage + "." + file.getName(), classes);
-                continue;
-            }
-            var fileName = file.getName();
-            if (!fileName.endsWith(".class") || fileName.contains("$")) {
-                continue;
-            }
-            var className = basePackage + '.' + fileName.substring(0, fileName.length() - 6);
-            try {
-                classes.add(Class.forName(className));
-            } catch (Throwable ignored) {
-                // ignore loading failures
+        return result;
+    }
+
+    // One "namespace<TAB>name<TAB>description" line per function, generated by the generateFunctionCatalog task.
+    private static List<BuiltInFunctionInfo> loadFunctions() {
+        var result = new ArrayList<BuiltInFunctionInfo>();
+        var stream = BuiltInFunctionIndex.class.getResourceAsStream(CATALOG_RESOURCE);
+        if (stream == null) {
+            return List.of();
+        }
+        try (var reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var nameStart = line.indexOf('\t');
+                var descriptionStart = nameStart < 0 ? -1 : line.indexOf('\t', nameStart + 1);
+                if (descriptionStart < 0) {
+                    continue;
+                }
+                var namespace = line.substring(0, nameStart);
+                var name = line.substring(nameStart + 1, descriptionStart);
+                var lookupKey = namespace.isEmpty() ? name : namespace + "::" + name;
+                result.add(new BuiltInFunctionInfo(lookupKey, namespace, name, line.substring(descriptionStart + 1)));
             }
+        } catch (IOException ignored) {
+            // an incomplete catalog only narrows completion and documentation
         }
+        result.sort(Comparator.comparing(BuiltInFunctionInfo::lookupKey));
+        return Collections.unmodifiableList(result);
     }
 }
@@ -4,12 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intellij.lang.documentation.AbstractDocumentationProvider;
 import com.intellij.psi.PsiElement;
 import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateGotoDeclarationHandler;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateJson;
 import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateLanguage;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.Nullable;
 
 public final class JjtemplateDocumentationProvider extends AbstractDocumentationProvider {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectMapper OBJECT_MAPPER = JjtemplateJson.MAPPER;
 
     @Override
     public @Nullable @Nls String generateDoc(PsiElement element, @Nullable PsiElement originalElement) {
@@ -21,37 +22,36 @@ public final class JjtemplateDocumentationProvider extends AbstractDocumentation
         if (element == null || !element.getLanguage().isKindOf(JjtemplateLanguage.INSTANCE)) {
             return null;
         }
-        var key = resolveLookupKey(element, originalElement);
-        if (key == null || key.isBlank()) {
-            return null;
-        }
-
-        var function = BuiltInFunctionIndex.find(key);
+        var function = resolveFunction(element, originalElement);
         if (function == null) {
             return null;
         }
 
+        // the catalog has no description for functions whose runtime does not provide one
+        var description = function.description().isEmpty() ? "" : "<p>" + function.description() + "</p>";
         return "<h2>" + function.presentableName() + "</h2>"
-                + "<p>" + function.description() + "</p>"
+                + description
                 + "<p><b>Kind:</b> JJTemplate built-in function</p>";
     }
 
-    private static String resolveLookupKey(PsiElement element, @Nullable PsiElement originalElement) {
+    // Looks the qualified name up right in the file contents, without copying the text or the token.
+    private static @Nullable BuiltInFunctionInfo resolveFunction(PsiElement element,
+                                                                 @Nullable PsiElement originalElement) {
         var sourceElement = originalElement != null ? originalElement : element;
         var file = sourceElement.getContainingFile();
         if (file == null) {
-            return element.getText();
+            return BuiltInFunctionIndex.find(element.getText());
         }
-        var text = file.getText();
-        if (text == null || text.isEmpty()) {
-            return element.getText();
+        var text = file.getViewProvider().getContents();
+        if (text.length() == 0) {
+            return BuiltInFunctionIndex.find(element.getText());
         }
         var offset = Math.min(Math.max(sourceElement.getTextOffset(), 0), text.length() - 1);
         if (!isFunctionTokenChar(text.charAt(offset)) && offset > 0 && isFunctionTokenChar(text.charAt(offset - 1))) {
             offset--;
         }
         if (!isFunctionTokenChar(text.charAt(offset))) {
-            return element.getText();
+            return BuiltInFunctionIndex.find(element.getText());
         }
 
         var start = offset;
@@ -62,11 +62,19 @@ public final class JjtemplateDocumentationProvider extends AbstractDocumentation
         while (end < text.length() && isFunctionTokenChar(text.charAt(end))) {
             end++;
         }
-        var token = text.substring(start, end);
-        if (token.contains("::")) {
-            return token;
+        if (containsNamespaceSeparator(text, start, end)) {
+            return BuiltInFunctionIndex.find(text, start, end);
+        }
+        return BuiltInFunctionIndex.find(element.getText());
+    }
+
+    private static boolean containsNamespaceSeparator(CharSequence text, int start, int end) {
+        for (int i = start; i + 1 < end; i++) {
+            if (text.charAt(i) == ':' && text.charAt(i + 1) == ':') {
+                return true;
+            }
         }
-        return element.getText();
+        return false;
     }
 
     private static boolean isFunctionTokenChar(char ch) {
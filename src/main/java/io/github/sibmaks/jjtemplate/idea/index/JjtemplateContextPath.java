@@ -0,0 +1,20 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+/**
+ * A root-context path read by a template, e.g. {@code order.customer} for {@code .order.customer}.
+ * The range spans from the leading dot to the end of the last segment.
+ */
+public record JjtemplateContextPath(String path, int start, int end) {
+
+    public int lastSegmentStart() {
+        return end - (path.length() - path.lastIndexOf('.') - 1);
+    }
+
+    public static String normalize(String path) {
+        var normalized = path.strip();
+        while (normalized.startsWith(".")) {
+            normalized = normalized.substring(1);
+        }
+        return normalized;
+    }
+}
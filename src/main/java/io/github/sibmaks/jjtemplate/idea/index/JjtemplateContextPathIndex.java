@@ -0,0 +1,92 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateFileType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps root-context paths (and all their prefixes) to the places each JJTemplate file reads them,
+ * see {@link JjtemplateContextPathScanner}.
+ */
+public final class JjtemplateContextPathIndex extends FileBasedIndexExtension<String, List<JjtemplateContextPath>> {
+    public static final ID<String, List<JjtemplateContextPath>> NAME = ID.create("jjtemplate.contextPaths");
+
+    @Override
+    public @NotNull ID<String, List<JjtemplateContextPath>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<JjtemplateContextPath>, FileContent> getIndexer() {
+        return inputData -> {
+            var result = new HashMap<String, List<JjtemplateContextPath>>();
+            for (var contextPath : JjtemplateContextPathScanner.scan(inputData.getContentAsText())) {
+                result.computeIfAbsent(contextPath.path(), ignored -> new ArrayList<>()).add(contextPath);
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<JjtemplateContextPath>> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, List<JjtemplateContextPath> value) throws IOException {
+                DataInputOutputUtil.writeINT(out, value.size());
+                for (var contextPath : value) {
+                    out.writeUTF(contextPath.path());
+                    DataInputOutputUtil.writeINT(out, contextPath.start());
+                    DataInputOutputUtil.writeINT(out, contextPath.end());
+                }
+            }
+
+            @Override
+            public List<JjtemplateContextPath> read(@NotNull DataInput in) throws IOException {
+                var size = DataInputOutputUtil.readINT(in);
+                var result = new ArrayList<JjtemplateContextPath>(size);
+                for (int i = 0; i < size; i++) {
+                    var path = in.readUTF();
+                    var start = DataInputOutputUtil.readINT(in);
+                    result.add(new JjtemplateContextPath(path, start, DataInputOutputUtil.readINT(in)));
+                }
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public @NotNull FileBasedIndex.InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(JjtemplateFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+}
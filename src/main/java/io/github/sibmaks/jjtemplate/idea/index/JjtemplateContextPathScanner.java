@@ -0,0 +1,114 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateSyntaxLexer;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateTokenTypes;
+import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds root-context paths of a template with file offsets, following the rules the tool window uses to build
+ * a context skeleton: {@code .name} not preceded by an identifier starts a path, {@code .segment} continues it,
+ * and roots named after a definition or a range binding are local. Every prefix of a path is reported, so a
+ * template reading {@code .order.customer.id} also reads {@code order} and {@code order.customer}.
+ */
+public final class JjtemplateContextPathScanner {
+    private static final String DEFAULT_RANGE_ITEM = "item";
+    private static final String DEFAULT_RANGE_INDEX = "index";
+
+    private JjtemplateContextPathScanner() {
+    }
+
+    public static @NotNull List<JjtemplateContextPath> scan(@NotNull CharSequence text) {
+        var localNames = new HashSet<String>();
+        for (var definition : JjtemplateDefinitionScanner.scan(text)) {
+            localNames.add(definition.name());
+        }
+
+        var candidates = new ArrayList<JjtemplateContextPath>();
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+
+        IElementType previousType = null;
+        StringBuilder path = null;
+        var pathStart = -1;
+        var expectSegment = false;
+        var rangeBindingStep = 0;
+        while (lexer.getTokenType() != null) {
+            var tokenType = lexer.getTokenType();
+            var start = lexer.getTokenStart();
+            var end = lexer.getTokenEnd();
+            lexer.advance();
+            if (tokenType == TokenType.WHITE_SPACE) {
+                continue;
+            }
+
+            rangeBindingStep = collectRangeBinding(text, tokenType, start, end, rangeBindingStep, localNames);
+
+            if (tokenType == JjtemplateTokenTypes.DOT) {
+                if (previousType == JjtemplateTokenTypes.IDENT) {
+                    // Either the next segment of a path or member access on a local value.
+                    expectSegment = path != null;
+                } else {
+                    path = new StringBuilder();
+                    pathStart = start;
+                }
+            } else if (tokenType == JjtemplateTokenTypes.IDENT && path != null && (path.isEmpty() || expectSegment)) {
+                if (!path.isEmpty()) {
+                    path.append('.');
+                }
+                path.append(text, start, end);
+                candidates.add(new JjtemplateContextPath(path.toString(), pathStart, end));
+                expectSegment = false;
+            } else {
+                path = null;
+                expectSegment = false;
+            }
+            previousType = tokenType;
+        }
+
+        var result = new ArrayList<JjtemplateContextPath>(candidates.size());
+        for (var candidate : candidates) {
+            var separator = candidate.path().indexOf('.');
+            var root = separator < 0 ? candidate.path() : candidate.path().substring(0, separator);
+            if (!localNames.contains(root)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    // range [item[, index]] of ...: step 1 expects the item, 2 a comma, 3 the index.
+    private static int collectRangeBinding(CharSequence text,
+                                           IElementType tokenType,
+                                           int start,
+                                           int end,
+                                           int step,
+                                           Set<String> localNames) {
+        if (tokenType == JjtemplateTokenTypes.KEYWORD && Keyword.RANGE.eq(text.subSequence(start, end).toString())) {
+            return 1;
+        }
+        if (step == 1) {
+            if (tokenType == JjtemplateTokenTypes.IDENT) {
+                localNames.add(text.subSequence(start, end).toString());
+                return 2;
+            }
+            localNames.add(DEFAULT_RANGE_ITEM);
+            localNames.add(DEFAULT_RANGE_INDEX);
+            return 0;
+        }
+        if (step == 2) {
+            return tokenType == JjtemplateTokenTypes.COMMA ? 3 : 0;
+        }
+        if (step == 3 && tokenType == JjtemplateTokenTypes.IDENT) {
+            localNames.add(text.subSequence(start, end).toString());
+        }
+        return 0;
+    }
+}
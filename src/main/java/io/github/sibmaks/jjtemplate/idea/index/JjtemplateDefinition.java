@@ -0,0 +1,20 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+public record JjtemplateDefinition(String name, int offset, Kind kind) {
+
+    public enum Kind {
+        DEFINITION("definition"),
+        RANGE("range binding"),
+        SWITCH("switch binding");
+
+        private final String presentableName;
+
+        Kind(String presentableName) {
+            this.presentableName = presentableName;
+        }
+
+        public String getPresentableName() {
+            return presentableName;
+        }
+    }
+}
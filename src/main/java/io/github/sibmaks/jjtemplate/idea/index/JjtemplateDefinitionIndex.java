@@ -0,0 +1,93 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateFileType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps definition names to their occurrences in each JJTemplate file, see {@link JjtemplateDefinitionScanner}.
+ */
+public final class JjtemplateDefinitionIndex extends FileBasedIndexExtension<String, List<JjtemplateDefinition>> {
+    public static final ID<String, List<JjtemplateDefinition>> NAME = ID.create("jjtemplate.definitions");
+
+    private static final JjtemplateDefinition.Kind[] KINDS = JjtemplateDefinition.Kind.values();
+
+    @Override
+    public @NotNull ID<String, List<JjtemplateDefinition>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<JjtemplateDefinition>, FileContent> getIndexer() {
+        return inputData -> {
+            var result = new HashMap<String, List<JjtemplateDefinition>>();
+            for (var definition : JjtemplateDefinitionScanner.scan(inputData.getContentAsText())) {
+                result.computeIfAbsent(definition.name(), ignored -> new ArrayList<>()).add(definition);
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<JjtemplateDefinition>> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, List<JjtemplateDefinition> value) throws IOException {
+                DataInputOutputUtil.writeINT(out, value.size());
+                for (var definition : value) {
+                    out.writeUTF(definition.name());
+                    DataInputOutputUtil.writeINT(out, definition.offset());
+                    out.writeByte(definition.kind().ordinal());
+                }
+            }
+
+            @Override
+            public List<JjtemplateDefinition> read(@NotNull DataInput in) throws IOException {
+                var size = DataInputOutputUtil.readINT(in);
+                var result = new ArrayList<JjtemplateDefinition>(size);
+                for (int i = 0; i < size; i++) {
+                    var name = in.readUTF();
+                    var offset = DataInputOutputUtil.readINT(in);
+                    result.add(new JjtemplateDefinition(name, offset, KINDS[in.readByte()]));
+                }
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public @NotNull FileBasedIndex.InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(JjtemplateFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateSyntaxLexer;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateTokenTypes;
+import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects definition names of a template in one pass of the editor lexer: identifier keys of the objects in the
+ * root {@code "definitions"} array and named {@code range}/{@code switch} bindings of every template block.
+ */
+public final class JjtemplateDefinitionScanner {
+    private static final String DEFINITIONS_KEY = "\"definitions\"";
+    private static final int ROOT_DEPTH = 1;
+    private static final int DEFINITIONS_ARRAY_DEPTH = 2;
+    private static final int DEFINITION_OBJECT_DEPTH = 3;
+
+    private final CharSequence text;
+    private final List<JjtemplateDefinition> definitions = new ArrayList<>();
+    private int depth;
+    private boolean inDefinitions;
+    private boolean expectKey;
+    private int keyStart = -1;
+    private int keyEnd = -1;
+    private int identStart = -1;
+    private int identEnd = -1;
+
+    /**
+     * Creates a scanner to be fed with the non-whitespace tokens of {@code text} in order, for callers that
+     * already run the lexer for other purposes.
+     */
+    public JjtemplateDefinitionScanner(@NotNull CharSequence text) {
+        this.text = text;
+    }
+
+    public static @NotNull List<JjtemplateDefinition> scan(@NotNull CharSequence text) {
+        var scanner = new JjtemplateDefinitionScanner(text);
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        while (lexer.getTokenType() != null) {
+            var tokenType = lexer.getTokenType();
+            if (tokenType != TokenType.WHITE_SPACE) {
+                scanner.accept(tokenType, lexer.getTokenStart(), lexer.getTokenEnd());
+            }
+            lexer.advance();
+        }
+        return scanner.getDefinitions();
+    }
+
+    public @NotNull List<JjtemplateDefinition> getDefinitions() {
+        return definitions;
+    }
+
+    public void accept(@NotNull IElementType tokenType, int start, int end) {
+        if (tokenType == JjtemplateTokenTypes.IDENT) {
+            identStart = start;
+            identEnd = end;
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.KEYWORD && identStart >= 0) {
+            var kind = bindingKind(text, start, end);
+            if (kind != null) {
+                definitions.add(new JjtemplateDefinition(text.subSequence(identStart, identEnd).toString(), identStart, kind));
+            }
+        }
+        identStart = -1;
+
+        if (tokenType == JjtemplateTokenTypes.LBRACE || tokenType == JjtemplateTokenTypes.LBRACKET) {
+            depth++;
+            if (depth == DEFINITIONS_ARRAY_DEPTH && keyStart >= 0 && tokenType == JjtemplateTokenTypes.LBRACKET) {
+                inDefinitions = regionEquals(text, keyStart, keyEnd, DEFINITIONS_KEY);
+            }
+            expectKey = tokenType == JjtemplateTokenTypes.LBRACE;
+            keyStart = -1;
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.RBRACE || tokenType == JjtemplateTokenTypes.RBRACKET) {
+            if (depth == DEFINITIONS_ARRAY_DEPTH) {
+                inDefinitions = false;
+            }
+            depth = Math.max(0, depth - 1);
+            expectKey = false;
+            keyStart = -1;
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.JSON_COMMA) {
+            expectKey = true;
+            keyStart = -1;
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.JSON_COLON) {
+            if (keyStart >= 0
+                    && inDefinitions
+                    && depth == DEFINITION_OBJECT_DEPTH
+                    && isIdentifier(text, keyStart + 1, keyEnd - 1)) {
+                definitions.add(new JjtemplateDefinition(
+                        text.subSequence(keyStart + 1, keyEnd - 1).toString(),
+                        keyStart + 1,
+                        JjtemplateDefinition.Kind.DEFINITION
+                ));
+            }
+            expectKey = false;
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.JSON_STRING && expectKey && isCompleteString(text, start, end)) {
+            // Keys outside the root object and the definitions array are only needed to spot "definitions".
+            if (depth == ROOT_DEPTH || (inDefinitions && depth == DEFINITION_OBJECT_DEPTH)) {
+                keyStart = start;
+                keyEnd = end;
+            }
+        }
+        expectKey = false;
+    }
+
+    private static JjtemplateDefinition.Kind bindingKind(CharSequence text, int start, int end) {
+        if (regionEquals(text, start, end, Keyword.RANGE.getLexem())) {
+            return JjtemplateDefinition.Kind.RANGE;
+        }
+        if (regionEquals(text, start, end, Keyword.SWITCH.getLexem())) {
+            return JjtemplateDefinition.Kind.SWITCH;
+        }
+        return null;
+    }
+
+    private static boolean isCompleteString(CharSequence text, int start, int end) {
+        return end - start >= 2 && text.charAt(start) == '"' && text.charAt(end - 1) == '"';
+    }
+
+    private static boolean isIdentifier(CharSequence text, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        var first = text.charAt(start);
+        if (!Character.isLetter(first) && first != '_') {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            var ch = text.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(CharSequence text, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (text.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
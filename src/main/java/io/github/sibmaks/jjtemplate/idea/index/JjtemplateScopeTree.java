@@ -0,0 +1,507 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateTokenTypes;
+import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declarations of one version of a template, arranged for go-to-declaration:
+ * <ul>
+ *     <li>scopes: the JSON value following a key whose template binds {@code range item[, index] of ...}, kept as
+ *     a tree of nested intervals with the bindings attached to each scope;</li>
+ *     <li>named {@code range}/{@code switch} definitions;</li>
+ *     <li>keys of the root {@code "definitions"} array at any depth, each linked to the key owning its object.</li>
+ * </ul>
+ * Filled by a {@link Builder} fed with the tokens of the editor lexer. Resolution descends the scope tree and
+ * binary-searches per-name offsets instead of rescanning the text.
+ */
+public final class JjtemplateScopeTree {
+    private static final int INITIAL_CAPACITY = 16;
+    // key parent of the keys of an object listed directly in the definitions array
+    private static final int TOP_LEVEL = -1;
+    // key parent of the keys of an object no key path leads to, e.g. one nested in an array
+    private static final int UNREACHABLE = -2;
+
+    private final int[] scopeStarts;
+    private final int[] scopeEnds;
+    private final int[] scopeParents;
+    private final int[] scopeFirstBindings;
+    private final int scopeCount;
+    private final String[] bindingNames;
+    private final int[] bindingStarts;
+    private final int bindingCount;
+    private final int[] namedStarts;
+    private final Map<String, int[]> namedByName;
+    private final String[] keyNames;
+    private final int[] keyStarts;
+    private final int[] keyParents;
+    private final Map<String, int[]> keysByName;
+
+    private JjtemplateScopeTree(Builder builder, List<JjtemplateDefinition> definitions) {
+        this.scopeStarts = builder.scopeStarts;
+        this.scopeEnds = builder.scopeEnds;
+        this.scopeParents = builder.scopeParents;
+        this.scopeFirstBindings = builder.scopeFirstBindings;
+        this.scopeCount = builder.scopeCount;
+        this.bindingNames = builder.bindingNames;
+        this.bindingStarts = builder.bindingStarts;
+        this.bindingCount = builder.bindingCount;
+        this.keyNames = builder.keyNames;
+        this.keyStarts = builder.keyStarts;
+        this.keyParents = builder.keyParents;
+        this.keysByName = groupByName(builder.keyNames, builder.keyCount);
+
+        var named = definitions.stream()
+                .filter(definition -> definition.kind() != JjtemplateDefinition.Kind.DEFINITION)
+                .toList();
+        this.namedStarts = named.stream().mapToInt(JjtemplateDefinition::offset).toArray();
+        var namedNames = named.stream().map(JjtemplateDefinition::name).toArray(String[]::new);
+        this.namedByName = groupByName(namedNames, namedNames.length);
+    }
+
+    /**
+     * Resolves {@code name}, read at {@code offset} as the root of {@code path} ({@code null} for a bare name):
+     * the innermost enclosing {@code range} binding, then the latest named definition before the usage, then
+     * a matching key path or key of the {@code "definitions"} array.
+     *
+     * @return range of the declaring identifier or key, or {@code null} for a context-bound variable
+     */
+    public @Nullable TextRange resolve(@NotNull String name, @Nullable List<String> path, int offset) {
+        var binding = findRangeBinding(name, offset);
+        if (binding >= 0) {
+            return TextRange.from(bindingStarts[binding], name.length());
+        }
+        var named = namedByName.get(name);
+        if (named != null) {
+            var index = lastAtOrBefore(named, namedStarts, offset);
+            if (index >= 0) {
+                return TextRange.from(namedStarts[named[index]], name.length());
+            }
+        }
+        if (path != null && !path.isEmpty()) {
+            var key = findKeyPath(path, offset);
+            if (key >= 0) {
+                return TextRange.from(keyStarts[key], keyNames[key].length());
+            }
+        }
+        var keys = keysByName.get(name);
+        if (keys == null) {
+            return null;
+        }
+        var index = lastAtOrBefore(keys, keyStarts, offset);
+        var key = keys[Math.max(index, 0)];
+        return TextRange.from(keyStarts[key], name.length());
+    }
+
+    private int findRangeBinding(String name, int offset) {
+        for (var scope = findScope(offset); scope >= 0; scope = scopeParents[scope]) {
+            var to = scope + 1 < scopeCount ? scopeFirstBindings[scope + 1] : bindingCount;
+            for (int binding = to - 1; binding >= scopeFirstBindings[scope]; binding--) {
+                if (bindingNames[binding].equals(name)) {
+                    return binding;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // innermost closed scope containing the offset
+    private int findScope(int offset) {
+        var low = 0;
+        var high = scopeCount - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            if (scopeStarts[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        var scope = high;
+        while (scope >= 0 && scopeEnds[scope] <= offset) {
+            scope = scopeParents[scope];
+        }
+        return scope;
+    }
+
+    private int findKeyPath(List<String> path, int offset) {
+        var candidates = keysByName.get(path.get(path.size() - 1));
+        if (candidates == null) {
+            return -1;
+        }
+        var first = -1;
+        var bestPrior = -1;
+        for (var candidate : candidates) {
+            if (!matchesPath(candidate, path)) {
+                continue;
+            }
+            if (first < 0) {
+                first = candidate;
+            }
+            if (keyStarts[candidate] <= offset) {
+                bestPrior = candidate;
+            }
+        }
+        return bestPrior >= 0 ? bestPrior : first;
+    }
+
+    private boolean matchesPath(int key, List<String> path) {
+        var parent = keyParents[key];
+        for (int i = path.size() - 2; i >= 0; i--) {
+            if (parent < 0 || !keyNames[parent].equals(path.get(i))) {
+                return false;
+            }
+            parent = keyParents[parent];
+        }
+        return parent == TOP_LEVEL;
+    }
+
+    // position in indices of the last entry whose start is at or before the offset, or -1
+    private static int lastAtOrBefore(int[] indices, int[] starts, int offset) {
+        var low = 0;
+        var high = indices.length - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            if (starts[indices[mid]] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    // name -> ascending indices into names
+    private static Map<String, int[]> groupByName(String[] names, int count) {
+        var counts = new HashMap<String, int[]>();
+        for (int i = 0; i < count; i++) {
+            counts.computeIfAbsent(names[i], name -> new int[1])[0]++;
+        }
+        var result = new HashMap<String, int[]>(counts.size() * 2);
+        for (int i = 0; i < count; i++) {
+            var counter = counts.get(names[i]);
+            var indices = result.computeIfAbsent(names[i], name -> new int[counter[0]]);
+            indices[indices.length - counter[0]--] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Receives the tokens of a text in order, like {@link JjtemplateDefinitionScanner}, and builds the tree.
+     */
+    public static final class Builder {
+        private static final String DEFINITIONS_KEY = "\"definitions\"";
+        private static final int ROOT_DEPTH = 1;
+        private static final int DEFINITIONS_ARRAY_DEPTH = 2;
+        // range item[, index] of: the steps expect the item, a comma or "of", the index, "of"
+        private static final int RANGE_ITEM = 1;
+        private static final int RANGE_COMMA_OR_OF = 2;
+        private static final int RANGE_INDEX = 3;
+        private static final int RANGE_OF = 4;
+
+        private final CharSequence text;
+
+        private int[] scopeStarts = new int[INITIAL_CAPACITY];
+        private int[] scopeEnds = new int[INITIAL_CAPACITY];
+        private int[] scopeParents = new int[INITIAL_CAPACITY];
+        private int[] scopeFirstBindings = new int[INITIAL_CAPACITY];
+        private int scopeCount;
+        private String[] bindingNames = new String[INITIAL_CAPACITY];
+        private int[] bindingStarts = new int[INITIAL_CAPACITY];
+        private int bindingCount;
+        private int pendingBindingsFrom;
+        private String[] keyNames = new String[INITIAL_CAPACITY];
+        private int[] keyStarts = new int[INITIAL_CAPACITY];
+        private int[] keyParents = new int[INITIAL_CAPACITY];
+        private int keyCount;
+
+        // per open JSON container: whether it is an object, the parent of its keys and the scope it delimits
+        private boolean[] containerObjects = new boolean[INITIAL_CAPACITY];
+        private int[] containerKeyParents = new int[INITIAL_CAPACITY];
+        private int[] containerScopes = new int[INITIAL_CAPACITY];
+        private int depth;
+        private boolean inDefinitions;
+        private boolean expectKey;
+        private int keyStart = -1;
+        private int keyEnd = -1;
+        private int rootKeyStart = -1;
+        private int rootKeyEnd = -1;
+        // definitions key whose value is being read, or -1
+        private int valueKey = -1;
+
+        private int expressionDepth;
+        private int rangeStep;
+        private int itemStart;
+        private int itemEnd;
+        private int indexStart;
+        private int indexEnd;
+        // pending bindings wait for the ':' of their key and the value they scope
+        private boolean awaitingColon;
+        private boolean awaitingValue;
+        private int nextContainerScope = -1;
+        private int scalarScope = -1;
+
+        public Builder(@NotNull CharSequence text) {
+            this.text = text;
+        }
+
+        public void accept(@NotNull IElementType tokenType, int start, int end) {
+            if (tokenType == TokenType.WHITE_SPACE) {
+                if (awaitingColon && expressionDepth == 0 && containsLineBreak(start, end)) {
+                    dropPendingBindings();
+                }
+                return;
+            }
+            if (awaitingValue) {
+                awaitingValue = false;
+                var scope = openScope(start);
+                if (tokenType == JjtemplateTokenTypes.LBRACE || tokenType == JjtemplateTokenTypes.LBRACKET) {
+                    nextContainerScope = scope;
+                } else {
+                    scalarScope = scope;
+                }
+            }
+            if (isJsonToken(tokenType)) {
+                rangeStep = 0;
+                acceptJsonToken(tokenType, start, end);
+            } else {
+                acceptExpressionToken(tokenType, start, end);
+            }
+        }
+
+        public @NotNull JjtemplateScopeTree build(@NotNull List<JjtemplateDefinition> definitions) {
+            dropPendingBindings();
+            closeScalarScope(text.length());
+            return new JjtemplateScopeTree(this, definitions);
+        }
+
+        private void acceptExpressionToken(IElementType tokenType, int start, int end) {
+            if (tokenType == JjtemplateTokenTypes.OPEN_EXPR
+                    || tokenType == JjtemplateTokenTypes.OPEN_COND
+                    || tokenType == JjtemplateTokenTypes.OPEN_SPREAD) {
+                expressionDepth++;
+            } else if (tokenType == JjtemplateTokenTypes.CLOSE) {
+                expressionDepth = Math.max(0, expressionDepth - 1);
+            }
+            var step = rangeStep;
+            rangeStep = 0;
+            if (tokenType == JjtemplateTokenTypes.KEYWORD && regionEquals(start, end, Keyword.RANGE.getLexem())) {
+                rangeStep = RANGE_ITEM;
+            } else if (tokenType == JjtemplateTokenTypes.IDENT && step == RANGE_ITEM) {
+                itemStart = start;
+                itemEnd = end;
+                rangeStep = RANGE_COMMA_OR_OF;
+            } else if (tokenType == JjtemplateTokenTypes.COMMA && step == RANGE_COMMA_OR_OF) {
+                rangeStep = RANGE_INDEX;
+            } else if (tokenType == JjtemplateTokenTypes.IDENT && step == RANGE_INDEX) {
+                indexStart = start;
+                indexEnd = end;
+                rangeStep = RANGE_OF;
+            } else if (tokenType == JjtemplateTokenTypes.KEYWORD
+                    && (step == RANGE_COMMA_OR_OF || step == RANGE_OF)
+                    && regionEquals(start, end, Keyword.OF.getLexem())) {
+                addBinding(itemStart, itemEnd);
+                if (step == RANGE_OF) {
+                    addBinding(indexStart, indexEnd);
+                }
+                awaitingColon = true;
+            }
+        }
+
+        private void acceptJsonToken(IElementType tokenType, int start, int end) {
+            if (awaitingColon
+                    && tokenType != JjtemplateTokenTypes.JSON_STRING
+                    && tokenType != JjtemplateTokenTypes.JSON_COLON) {
+                dropPendingBindings();
+            }
+
+            if (tokenType == JjtemplateTokenTypes.LBRACE || tokenType == JjtemplateTokenTypes.LBRACKET) {
+                openContainer(tokenType == JjtemplateTokenTypes.LBRACE);
+                return;
+            }
+            if (tokenType == JjtemplateTokenTypes.RBRACE || tokenType == JjtemplateTokenTypes.RBRACKET) {
+                closeScalarScope(start);
+                closeContainer(end);
+                return;
+            }
+            if (tokenType == JjtemplateTokenTypes.JSON_COMMA) {
+                closeScalarScope(start);
+                expectKey = depth > 0 && containerObjects[depth - 1];
+                keyStart = -1;
+                rootKeyStart = -1;
+                valueKey = -1;
+                return;
+            }
+            if (tokenType == JjtemplateTokenTypes.JSON_COLON) {
+                if (keyStart >= 0) {
+                    if (depth == ROOT_DEPTH) {
+                        rootKeyStart = keyStart;
+                        rootKeyEnd = keyEnd;
+                    } else if (inDefinitions) {
+                        valueKey = addKey();
+                    }
+                }
+                keyStart = -1;
+                expectKey = false;
+                if (awaitingColon) {
+                    awaitingColon = false;
+                    awaitingValue = true;
+                }
+                return;
+            }
+            if (tokenType == JjtemplateTokenTypes.JSON_STRING && expectKey && isCompleteString(start, end)) {
+                keyStart = start;
+                keyEnd = end;
+            }
+            expectKey = false;
+        }
+
+        private void openContainer(boolean object) {
+            if (depth == containerObjects.length) {
+                containerObjects = Arrays.copyOf(containerObjects, depth * 2);
+                containerKeyParents = Arrays.copyOf(containerKeyParents, depth * 2);
+                containerScopes = Arrays.copyOf(containerScopes, depth * 2);
+            }
+            var keyParent = UNREACHABLE;
+            if (depth == ROOT_DEPTH && !object) {
+                inDefinitions = rootKeyStart >= 0 && regionEquals(rootKeyStart, rootKeyEnd, DEFINITIONS_KEY);
+            } else if (inDefinitions && object) {
+                if (depth == DEFINITIONS_ARRAY_DEPTH) {
+                    keyParent = TOP_LEVEL;
+                } else if (containerObjects[depth - 1] && valueKey >= 0) {
+                    keyParent = valueKey;
+                }
+            }
+            containerObjects[depth] = object;
+            containerKeyParents[depth] = keyParent;
+            containerScopes[depth] = nextContainerScope;
+            nextContainerScope = -1;
+            depth++;
+            expectKey = object;
+            keyStart = -1;
+            valueKey = -1;
+        }
+
+        private void closeContainer(int end) {
+            if (depth == 0) {
+                return;
+            }
+            depth--;
+            var scope = containerScopes[depth];
+            if (scope >= 0) {
+                scopeEnds[scope] = end;
+            }
+            if (depth == ROOT_DEPTH) {
+                inDefinitions = false;
+            }
+            expectKey = false;
+            keyStart = -1;
+            valueKey = -1;
+        }
+
+        private int openScope(int start) {
+            if (scopeCount == scopeStarts.length) {
+                scopeStarts = Arrays.copyOf(scopeStarts, scopeCount * 2);
+                scopeEnds = Arrays.copyOf(scopeEnds, scopeCount * 2);
+                scopeParents = Arrays.copyOf(scopeParents, scopeCount * 2);
+                scopeFirstBindings = Arrays.copyOf(scopeFirstBindings, scopeCount * 2);
+            }
+            scopeStarts[scopeCount] = start;
+            // stays -1, containing nothing, while the value is not terminated
+            scopeEnds[scopeCount] = -1;
+            scopeParents[scopeCount] = currentScope();
+            scopeFirstBindings[scopeCount] = pendingBindingsFrom;
+            pendingBindingsFrom = bindingCount;
+            return scopeCount++;
+        }
+
+        private void closeScalarScope(int end) {
+            if (scalarScope >= 0) {
+                scopeEnds[scalarScope] = end;
+                scalarScope = -1;
+            }
+        }
+
+        private int currentScope() {
+            for (int i = depth - 1; i >= 0; i--) {
+                if (containerScopes[i] >= 0) {
+                    return containerScopes[i];
+                }
+            }
+            return -1;
+        }
+
+        private void addBinding(int start, int end) {
+            if (bindingCount == bindingNames.length) {
+                bindingNames = Arrays.copyOf(bindingNames, bindingCount * 2);
+                bindingStarts = Arrays.copyOf(bindingStarts, bindingCount * 2);
+            }
+            bindingNames[bindingCount] = text.subSequence(start, end).toString();
+            bindingStarts[bindingCount++] = start;
+        }
+
+        private void dropPendingBindings() {
+            bindingCount = pendingBindingsFrom;
+            awaitingColon = false;
+            awaitingValue = false;
+        }
+
+        private int addKey() {
+            if (keyCount == keyNames.length) {
+                keyNames = Arrays.copyOf(keyNames, keyCount * 2);
+                keyStarts = Arrays.copyOf(keyStarts, keyCount * 2);
+                keyParents = Arrays.copyOf(keyParents, keyCount * 2);
+            }
+            keyNames[keyCount] = text.subSequence(keyStart + 1, keyEnd - 1).toString();
+            keyStarts[keyCount] = keyStart + 1;
+            keyParents[keyCount] = containerKeyParents[depth - 1];
+            return keyCount++;
+        }
+
+        private boolean containsLineBreak(int start, int end) {
+            for (int i = start; i < end; i++) {
+                var ch = text.charAt(i);
+                if (ch == '\n' || ch == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isCompleteString(int start, int end) {
+            return end - start >= 2 && text.charAt(start) == '"' && text.charAt(end - 1) == '"';
+        }
+
+        private boolean regionEquals(int start, int end, String value) {
+            if (end - start != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (text.charAt(start + i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isJsonToken(IElementType tokenType) {
+            return tokenType == JjtemplateTokenTypes.LBRACE
+                    || tokenType == JjtemplateTokenTypes.RBRACE
+                    || tokenType == JjtemplateTokenTypes.LBRACKET
+                    || tokenType == JjtemplateTokenTypes.RBRACKET
+                    || tokenType == JjtemplateTokenTypes.JSON_COMMA
+                    || tokenType == JjtemplateTokenTypes.JSON_COLON
+                    || tokenType == JjtemplateTokenTypes.JSON_STRING
+                    || tokenType == JjtemplateTokenTypes.TEXT;
+        }
+    }
+}
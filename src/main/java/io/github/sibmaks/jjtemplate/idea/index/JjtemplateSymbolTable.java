@@ -0,0 +1,175 @@
+package io.github.sibmaks.jjtemplate.idea.index;
+
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateSyntaxLexer;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateTokenTypes;
+import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Symbols of one version of a template, collected in a single pass of the editor lexer: definitions, range
+ * bindings and root-context identifiers ({@code .name}), each with its offset, and the {@link JjtemplateScopeTree}
+ * used to resolve declarations. Offset queries are binary searches.
+ */
+public final class JjtemplateSymbolTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<JjtemplateDefinition> definitions;
+    private final Set<String> definitionNames;
+    private final String[] bindingNames;
+    private final int[] bindingOffsets;
+    private final int bindingCount;
+    private final String[] rootNames;
+    private final int[] rootOffsets;
+    private final int rootCount;
+    private final JjtemplateScopeTree scopeTree;
+
+    private JjtemplateSymbolTable(List<JjtemplateDefinition> definitions,
+                                  String[] bindingNames,
+                                  int[] bindingOffsets,
+                                  int bindingCount,
+                                  String[] rootNames,
+                                  int[] rootOffsets,
+                                  int rootCount,
+                                  JjtemplateScopeTree scopeTree) {
+        this.definitions = List.copyOf(definitions);
+        var names = new LinkedHashSet<String>();
+        for (var definition : definitions) {
+            names.add(definition.name());
+        }
+        this.definitionNames = names;
+        this.bindingNames = bindingNames;
+        this.bindingOffsets = bindingOffsets;
+        this.bindingCount = bindingCount;
+        this.rootNames = rootNames;
+        this.rootOffsets = rootOffsets;
+        this.rootCount = rootCount;
+        this.scopeTree = scopeTree;
+    }
+
+    public static @NotNull JjtemplateSymbolTable build(@NotNull CharSequence text) {
+        var definitionScanner = new JjtemplateDefinitionScanner(text);
+        var scopeTreeBuilder = new JjtemplateScopeTree.Builder(text);
+        var bindingNames = new String[INITIAL_CAPACITY];
+        var bindingOffsets = new int[INITIAL_CAPACITY];
+        var bindingCount = 0;
+        var rootNames = new String[INITIAL_CAPACITY];
+        var rootOffsets = new int[INITIAL_CAPACITY];
+        var rootCount = 0;
+
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        IElementType previousType = null;
+        IElementType beforePreviousType = null;
+        // range [item[, index]] of ...: step 1 expects the item, 2 a comma, 3 the index.
+        var rangeBindingStep = 0;
+        while (lexer.getTokenType() != null) {
+            var tokenType = lexer.getTokenType();
+            var start = lexer.getTokenStart();
+            var end = lexer.getTokenEnd();
+            lexer.advance();
+            scopeTreeBuilder.accept(tokenType, start, end);
+            if (tokenType == TokenType.WHITE_SPACE) {
+                continue;
+            }
+            definitionScanner.accept(tokenType, start, end);
+
+            var step = rangeBindingStep;
+            rangeBindingStep = 0;
+            if (tokenType == JjtemplateTokenTypes.KEYWORD && Keyword.RANGE.eq(text.subSequence(start, end).toString())) {
+                rangeBindingStep = 1;
+            } else if (tokenType == JjtemplateTokenTypes.COMMA && step == 2) {
+                rangeBindingStep = 3;
+            } else if (tokenType == JjtemplateTokenTypes.IDENT && (step == 1 || step == 3)) {
+                if (bindingCount == bindingNames.length) {
+                    bindingNames = Arrays.copyOf(bindingNames, bindingCount * 2);
+                    bindingOffsets = Arrays.copyOf(bindingOffsets, bindingCount * 2);
+                }
+                bindingNames[bindingCount] = text.subSequence(start, end).toString();
+                bindingOffsets[bindingCount++] = start;
+                rangeBindingStep = step == 1 ? 2 : 0;
+            }
+
+            if (tokenType == JjtemplateTokenTypes.IDENT
+                    && previousType == JjtemplateTokenTypes.DOT
+                    && beforePreviousType != JjtemplateTokenTypes.IDENT) {
+                if (rootCount == rootNames.length) {
+                    rootNames = Arrays.copyOf(rootNames, rootCount * 2);
+                    rootOffsets = Arrays.copyOf(rootOffsets, rootCount * 2);
+                }
+                rootNames[rootCount] = text.subSequence(start, end).toString();
+                rootOffsets[rootCount++] = start;
+            }
+            beforePreviousType = previousType;
+            previousType = tokenType;
+        }
+        var definitions = definitionScanner.getDefinitions();
+        return new JjtemplateSymbolTable(
+                definitions,
+                bindingNames,
+                bindingOffsets,
+                bindingCount,
+                rootNames,
+                rootOffsets,
+                rootCount,
+                scopeTreeBuilder.build(definitions)
+        );
+    }
+
+    public @NotNull List<JjtemplateDefinition> getDefinitions() {
+        return definitions;
+    }
+
+    public @NotNull Set<String> getDefinitionNames() {
+        return definitionNames;
+    }
+
+    public @NotNull JjtemplateScopeTree getScopeTree() {
+        return scopeTree;
+    }
+
+    /**
+     * @return names bound by {@code range} blocks declared before {@code offset}, in document order
+     */
+    public @NotNull Set<String> getRangeBindingsBefore(int offset) {
+        var result = new LinkedHashSet<String>();
+        var count = countBefore(bindingOffsets, bindingCount, offset);
+        for (int i = 0; i < count; i++) {
+            result.add(bindingNames[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return root-context identifiers read before {@code offset}, most recent first, without {@code excluded}
+     */
+    public @NotNull Set<String> getRecentRootVariables(int offset, @NotNull Set<String> excluded) {
+        var result = new LinkedHashSet<String>();
+        for (int i = countBefore(rootOffsets, rootCount, offset) - 1; i >= 0; i--) {
+            if (!excluded.contains(rootNames[i])) {
+                result.add(rootNames[i]);
+            }
+        }
+        return result;
+    }
+
+    private static int countBefore(int[] offsets, int count, int offset) {
+        var low = 0;
+        var high = count;
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (offsets[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
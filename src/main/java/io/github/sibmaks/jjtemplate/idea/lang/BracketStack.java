@@ -0,0 +1,37 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import java.util.Arrays;
+
+/**
+ * Stack of booleans packed into the bits of a {@code long[]}: one bit per open bracket, telling whether the
+ * formatter indented its content.
+ */
+final class BracketStack {
+    private long[] words = new long[1];
+    private int size;
+
+    void push(boolean value) {
+        var word = size >>> 6;
+        if (word == words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        var mask = 1L << (size & 63);
+        if (value) {
+            words[word] |= mask;
+        } else {
+            words[word] &= ~mask;
+        }
+        size++;
+    }
+
+    /**
+     * @return the value on top of the stack, or {@code false} if it is empty
+     */
+    boolean pop() {
+        if (size == 0) {
+            return false;
+        }
+        size--;
+        return (words[size >>> 6] & (1L << (size & 63))) != 0;
+    }
+}
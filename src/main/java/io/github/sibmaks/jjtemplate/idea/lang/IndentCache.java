@@ -0,0 +1,40 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import java.util.Arrays;
+
+/**
+ * Indent strings of one indent size, created once per nesting level and reused for every line at that level.
+ * With a tab size the indent is written as tabs, padded with spaces to the exact width, as the platform does.
+ */
+final class IndentCache {
+    private final int indentStep;
+    private final int tabSize;
+    private String[] indents = new String[8];
+
+    IndentCache(int indentSize) {
+        this(indentSize, 0);
+    }
+
+    IndentCache(int indentSize, int tabSize) {
+        this.indentStep = Math.max(indentSize, 1);
+        this.tabSize = Math.max(tabSize, 0);
+    }
+
+    String get(int level) {
+        if (level <= 0) {
+            return "";
+        }
+        if (level >= indents.length) {
+            indents = Arrays.copyOf(indents, Math.max(indents.length * 2, level + 1));
+        }
+        var indent = indents[level];
+        if (indent == null) {
+            var width = level * indentStep;
+            indent = tabSize == 0
+                    ? " ".repeat(width)
+                    : "\t".repeat(width / tabSize) + " ".repeat(width % tabSize);
+            indents[level] = indent;
+        }
+        return indent;
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Everything {@link JjtemplateAnalyzer} learns about a template in one pass.
+ */
+public record JjtemplateAnalysis(List<Highlight> highlights,
+                                 List<Problem> problems,
+                                 Set<String> definitionNames,
+                                 Set<String> rangeBindings) {
+
+    public record Highlight(int start, int end, TextAttributesKey key) {
+    }
+
+    public record Problem(int start, int end, HighlightSeverity severity, String message) {
+    }
+}
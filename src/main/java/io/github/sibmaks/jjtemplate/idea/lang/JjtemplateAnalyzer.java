@@ -0,0 +1,772 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.editor.DefaultLanguageHighlighterColors;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Analyzes a template in one forward pass of {@link JjtemplateSyntaxLexer}: annotator highlights, JSON syntax
+ * errors, pipe errors, definition names and range bindings come out of the same token stream.
+ * <p>
+ * JSON structure is checked by a small state machine that treats template blocks as values, so a block does not
+ * hide the rest of the document from validation; only the first JSON error is reported, like a JSON parser would.
+ * Expression tokens are recorded in compact arrays while lexing, and identifiers are classified from them at the
+ * end, once every definition name and range binding of the file is known.
+ */
+public final class JjtemplateAnalyzer {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int EXPECT_VALUE = 0;
+    private static final int EXPECT_KEY = 1;
+    private static final int EXPECT_COLON = 2;
+    private static final int EXPECT_SEPARATOR = 3;
+    // A block in property position is either a computed key or a spread: ':', ',' and the closer all fit.
+    private static final int EXPECT_TEMPLATE_MEMBER_END = 4;
+
+    private static final byte OBJECT = 1;
+    private static final byte ARRAY = 2;
+    private static final byte DEFINITIONS_ARRAY = 3;
+    private static final byte DEFINITION_OBJECT = 4;
+
+    private static final String DEFINITIONS_KEY = "definitions";
+    private static final String VALID_ESCAPES = "\"\\/bfnrtu";
+
+    private final CharSequence text;
+    private final List<JjtemplateAnalysis.Highlight> highlights = new ArrayList<>();
+    private final List<JjtemplateAnalysis.Problem> problems = new ArrayList<>();
+    private final Set<String> definitionNames = new HashSet<>();
+    private final Set<String> rangeBindings = new HashSet<>();
+
+    // expression tokens without whitespace, in document order
+    private IElementType[] types = new IElementType[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private byte[] containers = new byte[INITIAL_CAPACITY];
+    private int depth;
+    private int expect = EXPECT_VALUE;
+    private boolean closeAllowed;
+    private boolean jsonErrorReported;
+
+    private boolean inJsonString;
+    private boolean stringIsKey;
+    private boolean stringHasTemplate;
+    private boolean stringStylePending;
+    private int stringStart;
+    private int[] stringParts = new int[8];
+    private int stringPartsSize;
+    private int keyStart = -1;
+    private int keyEnd = -1;
+
+    // opener of the top-level template block being lexed, or -1 in JSON
+    private int blockOpenStart = -1;
+    private int blockOpenEnd = -1;
+
+    private int rangeBindingStep;
+    private int pendingPipe = -1;
+
+    private JjtemplateAnalyzer(CharSequence text) {
+        this.text = text;
+    }
+
+    public static @NotNull JjtemplateAnalysis analyze(@NotNull CharSequence text) {
+        return new JjtemplateAnalyzer(text).run();
+    }
+
+    private JjtemplateAnalysis run() {
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        while (lexer.getTokenType() != null) {
+            ProgressManager.checkCanceled();
+            var tokenType = lexer.getTokenType();
+            var start = lexer.getTokenStart();
+            var end = lexer.getTokenEnd();
+            var state = lexer.getState();
+            var mode = JjtemplateSyntaxLexer.getMode(state);
+            lexer.advance();
+            if (isOpen(tokenType) && !isExpressionMode(state)) {
+                openTemplate(tokenType, start, end, mode);
+            } else if (isExpressionMode(state)) {
+                expressionToken(tokenType, start, end);
+            } else {
+                jsonToken(tokenType, start, end, mode);
+            }
+            if (blockOpenStart >= 0 && !isExpressionMode(lexer.getState())) {
+                // the block ended with its own "}}" or the lexer gave it up at the end of the JSON string
+                var closed = tokenType == JjtemplateTokenTypes.CLOSE && JjtemplateSyntaxLexer.getDepth(state) <= 1;
+                if (!closed) {
+                    reportUnterminatedTemplate(false);
+                }
+                blockOpenStart = -1;
+            }
+        }
+        if (blockOpenStart >= 0) {
+            reportUnterminatedTemplate(true);
+        }
+        finish();
+        classifyIdentifiers();
+        return new JjtemplateAnalysis(highlights, problems, definitionNames, rangeBindings);
+    }
+
+    private void openTemplate(IElementType tokenType, int start, int end, int mode) {
+        if (mode == JjtemplateSyntaxLexer.STATE_JSON) {
+            flushStringStyle(false);
+            if (expect == EXPECT_KEY) {
+                expect = EXPECT_TEMPLATE_MEMBER_END;
+                closeAllowed = false;
+            } else {
+                beginValue(start, end);
+                endValue();
+            }
+        } else if (mode == JjtemplateSyntaxLexer.STATE_JSON_STRING) {
+            stringHasTemplate = true;
+        }
+        blockOpenStart = start;
+        blockOpenEnd = end;
+        expressionToken(tokenType, start, end);
+    }
+
+    private void reportUnterminatedTemplate(boolean atEndOfInput) {
+        problems.add(new JjtemplateAnalysis.Problem(
+                blockOpenStart,
+                blockOpenEnd,
+                HighlightSeverity.ERROR,
+                "Unterminated template expression"
+        ));
+        if (atEndOfInput) {
+            // The rest of the text was lexed as the expression, so JSON errors at the end would be noise.
+            jsonErrorReported = true;
+        }
+    }
+
+    private void expressionToken(IElementType tokenType, int start, int end) {
+        if (inJsonString) {
+            validateStringContent(start, end);
+        }
+        if (tokenType == TokenType.WHITE_SPACE) {
+            return;
+        }
+        if (tokenType == TokenType.BAD_CHARACTER) {
+            problems.add(new JjtemplateAnalysis.Problem(
+                    start,
+                    end,
+                    HighlightSeverity.ERROR,
+                    "Unexpected character '" + text.subSequence(start, end) + "'"
+            ));
+        }
+        if (inJsonString) {
+            var key = mapExpressionToken(tokenType);
+            if (key != null) {
+                addHighlight(start, end, key);
+            }
+        }
+        if (pendingPipe >= 0) {
+            if (!isValidAfterPipe(tokenType)) {
+                reportMissingPipeExpression();
+            }
+            pendingPipe = -1;
+        }
+        collectRangeBinding(tokenType, start, end);
+        if (tokenType == JjtemplateTokenTypes.KEYWORD
+                && size > 0
+                && types[size - 1] == JjtemplateTokenTypes.IDENT
+                && isDefinitionKeyword(start, end)) {
+            definitionNames.add(text.subSequence(starts[size - 1], ends[size - 1]).toString());
+        }
+        addExpressionToken(tokenType, start, end);
+        if (tokenType == JjtemplateTokenTypes.PIPE) {
+            pendingPipe = size - 1;
+        }
+    }
+
+    private void jsonToken(IElementType tokenType, int start, int end, int mode) {
+        if (tokenType == TokenType.WHITE_SPACE) {
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.JSON_STRING) {
+            jsonString(start, end, mode);
+            return;
+        }
+        flushStringStyle(tokenType == JjtemplateTokenTypes.JSON_COLON);
+        if (tokenType == JjtemplateTokenTypes.LBRACE || tokenType == JjtemplateTokenTypes.LBRACKET) {
+            openContainer(tokenType == JjtemplateTokenTypes.LBRACE, start, end);
+        } else if (tokenType == JjtemplateTokenTypes.RBRACE || tokenType == JjtemplateTokenTypes.RBRACKET) {
+            closeContainer(tokenType == JjtemplateTokenTypes.RBRACE, start, end);
+        } else if (tokenType == JjtemplateTokenTypes.JSON_COMMA) {
+            if (depth == 0 || (expect != EXPECT_SEPARATOR && expect != EXPECT_TEMPLATE_MEMBER_END)) {
+                reportJsonError(start, end, "Unexpected ','");
+            }
+            if (depth > 0) {
+                expect = isObject(containers[depth - 1]) ? EXPECT_KEY : EXPECT_VALUE;
+            }
+            closeAllowed = false;
+        } else if (tokenType == JjtemplateTokenTypes.JSON_COLON) {
+            if (expect != EXPECT_COLON && expect != EXPECT_TEMPLATE_MEMBER_END) {
+                reportJsonError(start, end, "Unexpected ':'");
+            }
+            expect = EXPECT_VALUE;
+            closeAllowed = false;
+        } else if (tokenType == JjtemplateTokenTypes.TEXT) {
+            beginValue(start, end);
+            if (!isJsonLiteral(start, end)) {
+                reportJsonError(start, end, "Unrecognized token '" + text.subSequence(start, end) + "': was expecting a JSON value");
+            }
+            highlightLiterals(start, end);
+            endValue();
+        } else {
+            reportJsonError(start, end, "Unexpected character '" + text.subSequence(start, end) + "'");
+        }
+    }
+
+    private void jsonString(int start, int end, int mode) {
+        var contentStart = start;
+        if (mode == JjtemplateSyntaxLexer.STATE_JSON) {
+            flushStringStyle(false);
+            stringIsKey = expect == EXPECT_KEY;
+            if (stringIsKey) {
+                expect = EXPECT_COLON;
+                closeAllowed = false;
+                keyStart = -1;
+            } else {
+                beginValue(start, start + 1);
+                endValue();
+            }
+            inJsonString = true;
+            stringHasTemplate = false;
+            stringStart = start;
+            stringPartsSize = 0;
+            contentStart = start + 1;
+        }
+        addStringPart(start, end);
+        var closed = isClosingQuote(contentStart, end);
+        validateStringContent(contentStart, closed ? end - 1 : end);
+        if (!closed) {
+            return;
+        }
+        inJsonString = false;
+        stringStylePending = true;
+        if (stringIsKey && !stringHasTemplate) {
+            keyStart = stringStart + 1;
+            keyEnd = end - 1;
+            if (depth > 0 && containers[depth - 1] == DEFINITION_OBJECT && isIdentifier(keyStart, keyEnd)) {
+                definitionNames.add(text.subSequence(keyStart, keyEnd).toString());
+            }
+        }
+    }
+
+    private void openContainer(boolean object, int start, int end) {
+        if (depth == 0) {
+            addHighlight(start, end, object ? JjtemplateSyntaxHighlighter.ROOT_OBJECT : JjtemplateSyntaxHighlighter.ROOT_ARRAY);
+        }
+        beginValue(start, end);
+        byte kind;
+        if (object) {
+            kind = depth > 0 && containers[depth - 1] == DEFINITIONS_ARRAY ? DEFINITION_OBJECT : OBJECT;
+        } else {
+            kind = depth == 1 && containers[0] == OBJECT && isDefinitionsKey() ? DEFINITIONS_ARRAY : ARRAY;
+        }
+        if (depth == containers.length) {
+            containers = Arrays.copyOf(containers, depth * 2);
+        }
+        containers[depth++] = kind;
+        expect = object ? EXPECT_KEY : EXPECT_VALUE;
+        closeAllowed = true;
+    }
+
+    private void closeContainer(boolean object, int start, int end) {
+        if (depth == 0) {
+            reportJsonError(start, end, "Unexpected close marker '" + text.charAt(start) + "'");
+        } else {
+            var top = containers[depth - 1];
+            if (isObject(top) != object) {
+                reportJsonError(start, end, "Unexpected close marker '" + text.charAt(start) + "': expected '"
+                        + (isObject(top) ? '}' : ']') + "'");
+            } else if (!closeAllowed && expect != EXPECT_SEPARATOR && expect != EXPECT_TEMPLATE_MEMBER_END) {
+                reportJsonError(start, end, expect == EXPECT_COLON
+                        ? "Expected ':' after property name"
+                        : object ? "Expected property name before '}'" : "Expected a value before ']'");
+            }
+            depth--;
+        }
+        if (depth == 0) {
+            addHighlight(start, end, object ? JjtemplateSyntaxHighlighter.ROOT_OBJECT : JjtemplateSyntaxHighlighter.ROOT_ARRAY);
+        }
+        endValue();
+    }
+
+    private void beginValue(int start, int end) {
+        switch (expect) {
+            case EXPECT_KEY -> reportJsonError(start, end, "Expected property name in double quotes");
+            case EXPECT_COLON -> reportJsonError(start, end, "Expected ':' after property name");
+            case EXPECT_SEPARATOR -> {
+                // Root level allows a sequence of values.
+                if (depth > 0) {
+                    reportJsonError(start, end, "Expected ',' or '" + (isObject(containers[depth - 1]) ? '}' : ']') + "'");
+                }
+            }
+            case EXPECT_TEMPLATE_MEMBER_END -> reportJsonError(start, end, "Expected ':', ',' or '}'");
+            default -> {
+            }
+        }
+    }
+
+    private void endValue() {
+        expect = depth == 0 ? EXPECT_VALUE : EXPECT_SEPARATOR;
+        closeAllowed = false;
+    }
+
+    private void finish() {
+        flushStringStyle(false);
+        if (pendingPipe >= 0) {
+            reportMissingPipeExpression();
+        }
+        if (inJsonString) {
+            reportJsonError(stringStart, stringStart + 1, "Unexpected end-of-input in a JSON string");
+        } else if (depth > 0) {
+            var offset = Math.max(text.length() - 1, 0);
+            reportJsonError(offset, offset + 1, "Unexpected end-of-input: expected close marker for "
+                    + (isObject(containers[depth - 1]) ? "OBJECT" : "ARRAY"));
+        }
+    }
+
+    // Strings are keys when a ':' follows them, which is only known at the next JSON token.
+    private void flushStringStyle(boolean colonFollows) {
+        if (!stringStylePending) {
+            return;
+        }
+        stringStylePending = false;
+        var key = colonFollows ? JjtemplateSyntaxHighlighter.OBJECT_KEY : JjtemplateSyntaxHighlighter.JSON_STRING;
+        for (int i = 0; i < stringPartsSize; i += 2) {
+            addHighlight(stringParts[i], stringParts[i + 1], key);
+        }
+        stringPartsSize = 0;
+    }
+
+    private void addStringPart(int start, int end) {
+        if (stringPartsSize + 2 > stringParts.length) {
+            stringParts = Arrays.copyOf(stringParts, stringParts.length * 2);
+        }
+        stringParts[stringPartsSize++] = start;
+        stringParts[stringPartsSize++] = end;
+    }
+
+    private boolean isClosingQuote(int contentStart, int end) {
+        var quote = end - 1;
+        if (quote < contentStart || text.charAt(quote) != '"') {
+            return false;
+        }
+        var backslashes = 0;
+        for (int i = quote - 1; i >= contentStart && text.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 0;
+    }
+
+    // Raw JSON string content, including template blocks placed inside a JSON string.
+    private void validateStringContent(int from, int to) {
+        for (int i = from; i < to; i++) {
+            var ch = text.charAt(i);
+            if (ch == '\\') {
+                if (i + 1 >= to) {
+                    return;
+                }
+                var escaped = text.charAt(i + 1);
+                if (VALID_ESCAPES.indexOf(escaped) < 0 || (escaped == 'u' && !isUnicodeEscape(i + 2, to))) {
+                    reportJsonError(i, i + 2, "Unrecognized character escape '" + escaped + "'");
+                }
+                i++;
+                continue;
+            }
+            if (ch < 0x20) {
+                reportJsonError(i, i + 1, "Illegal unquoted character (code " + (int) ch + "): has to be escaped in a JSON string");
+            }
+        }
+    }
+
+    private boolean isUnicodeEscape(int from, int to) {
+        if (from + 4 > to) {
+            return false;
+        }
+        for (int i = from; i < from + 4; i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void reportJsonError(int start, int end, String message) {
+        if (jsonErrorReported) {
+            return;
+        }
+        jsonErrorReported = true;
+        problems.add(new JjtemplateAnalysis.Problem(start, Math.max(end, start + 1), HighlightSeverity.ERROR, message));
+    }
+
+    private void reportMissingPipeExpression() {
+        problems.add(new JjtemplateAnalysis.Problem(
+                starts[pendingPipe],
+                Math.max(ends[pendingPipe], starts[pendingPipe] + 1),
+                HighlightSeverity.ERROR,
+                "Missing expression after pipe operator"
+        ));
+    }
+
+    private void highlightLiterals(int start, int end) {
+        for (int i = start; i < end; i++) {
+            var ch = text.charAt(i);
+            if (ch == '-' || Character.isDigit(ch)) {
+                var numberEnd = readNumberEnd(i, end);
+                if (numberEnd > i) {
+                    addHighlight(i, numberEnd, JjtemplateSyntaxHighlighter.JSON_NUMBER);
+                    i = numberEnd - 1;
+                    continue;
+                }
+            }
+            if (Character.isLetter(ch)) {
+                var wordEnd = i;
+                while (wordEnd < end && Character.isLetter(text.charAt(wordEnd))) {
+                    wordEnd++;
+                }
+                if (isLiteralWord(i, wordEnd)) {
+                    addHighlight(i, wordEnd, JjtemplateSyntaxHighlighter.JSON_BOOLEAN);
+                }
+                i = wordEnd - 1;
+            }
+        }
+    }
+
+    private boolean isJsonLiteral(int start, int end) {
+        return isLiteralWord(start, end) || readNumberEnd(start, end) == end;
+    }
+
+    private boolean isLiteralWord(int start, int end) {
+        return regionEquals(start, end, "true") || regionEquals(start, end, "false") || regionEquals(start, end, "null");
+    }
+
+    private int readNumberEnd(int from, int limit) {
+        var index = from;
+        if (text.charAt(index) == '-') {
+            index++;
+        }
+        var intStart = index;
+        while (index < limit && Character.isDigit(text.charAt(index))) {
+            index++;
+        }
+        if (intStart == index) {
+            return from;
+        }
+        if (index < limit && text.charAt(index) == '.') {
+            var dot = index++;
+            var fractionStart = index;
+            while (index < limit && Character.isDigit(text.charAt(index))) {
+                index++;
+            }
+            if (fractionStart == index) {
+                return dot;
+            }
+        }
+        if (index < limit && (text.charAt(index) == 'e' || text.charAt(index) == 'E')) {
+            var expStart = index++;
+            if (index < limit && (text.charAt(index) == '+' || text.charAt(index) == '-')) {
+                index++;
+            }
+            var digitsStart = index;
+            while (index < limit && Character.isDigit(text.charAt(index))) {
+                index++;
+            }
+            if (digitsStart == index) {
+                return expStart;
+            }
+        }
+        return index;
+    }
+
+    // range [item[, index]] of ...: step 1 expects the item, 2 a comma, 3 the index.
+    private void collectRangeBinding(IElementType tokenType, int start, int end) {
+        var step = rangeBindingStep;
+        rangeBindingStep = 0;
+        if (tokenType == JjtemplateTokenTypes.KEYWORD && regionEquals(start, end, Keyword.RANGE.getLexem())) {
+            rangeBindingStep = 1;
+        } else if (tokenType == JjtemplateTokenTypes.COMMA && step == 2) {
+            rangeBindingStep = 3;
+        } else if (tokenType == JjtemplateTokenTypes.IDENT && (step == 1 || step == 3)) {
+            rangeBindings.add(text.subSequence(start, end).toString());
+            rangeBindingStep = step == 1 ? 2 : 0;
+        }
+    }
+
+    private void addExpressionToken(IElementType tokenType, int start, int end) {
+        if (size == types.length) {
+            var capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        types[size] = tokenType;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    private void addHighlight(int start, int end, TextAttributesKey key) {
+        if (start < end) {
+            highlights.add(new JjtemplateAnalysis.Highlight(start, end, key));
+        }
+    }
+
+    private void classifyIdentifiers() {
+        for (int i = 0; i < size; i++) {
+            if (types[i] != JjtemplateTokenTypes.IDENT) {
+                continue;
+            }
+            ProgressManager.checkCanceled();
+            var key = isDefinitionName(i) || isRangeBindingName(i)
+                    ? JjtemplateSyntaxHighlighter.OBJECT_KEY
+                    : isFunctionCall(i)
+                    ? JjtemplateSyntaxHighlighter.TEMPLATE_FUNCTION
+                    : isContextVariable(i)
+                    ? JjtemplateSyntaxHighlighter.TEMPLATE_CONTEXT_VARIABLE
+                    : JjtemplateSyntaxHighlighter.TEMPLATE_VARIABLE;
+            addHighlight(starts[i], ends[i], key);
+        }
+    }
+
+    private IElementType typeAt(int index) {
+        return index >= 0 && index < size ? types[index] : null;
+    }
+
+    private boolean isDefinitionName(int identIndex) {
+        var next = identIndex + 1;
+        return typeAt(next) == JjtemplateTokenTypes.KEYWORD && isDefinitionKeyword(starts[next], ends[next]);
+    }
+
+    private boolean isRangeBindingName(int identIndex) {
+        var previous = identIndex - 1;
+        if (isRangeKeyword(previous)) {
+            return true;
+        }
+        return typeAt(previous) == JjtemplateTokenTypes.COMMA
+                && typeAt(identIndex - 2) == JjtemplateTokenTypes.IDENT
+                && isRangeKeyword(identIndex - 3);
+    }
+
+    private boolean isRangeKeyword(int index) {
+        return typeAt(index) == JjtemplateTokenTypes.KEYWORD && regionEquals(starts[index], ends[index], Keyword.RANGE.getLexem());
+    }
+
+    private boolean isFunctionCall(int identIndex) {
+        var previous = typeAt(identIndex - 1);
+        if (previous == JjtemplateTokenTypes.PIPE) {
+            return true;
+        }
+        var next = typeAt(identIndex + 1);
+        if (next == JjtemplateTokenTypes.LPAREN) {
+            return true;
+        }
+        if (next == JjtemplateTokenTypes.COLON) {
+            if (isNamespacedFunctionStart(identIndex)) {
+                return true;
+            }
+            return typeAt(identIndex + 2) == JjtemplateTokenTypes.COLON;
+        }
+        if (previous == JjtemplateTokenTypes.COLON) {
+            if (isNamespacedFunctionName(identIndex)) {
+                return true;
+            }
+            var previousPrevious = typeAt(identIndex - 2);
+            if (previousPrevious == JjtemplateTokenTypes.COLON) {
+                return isPipedIdentifier(identIndex - 3);
+            }
+            if (previousPrevious == JjtemplateTokenTypes.IDENT) {
+                return isPipedIdentifier(identIndex - 2);
+            }
+        }
+        return isNamespacedFunctionPrefix(identIndex) || isBareFunctionCall(identIndex);
+    }
+
+    private boolean isNamespacedFunctionStart(int identIndex) {
+        if (!isFunctionBoundary(identIndex - 1) || typeAt(identIndex + 1) != JjtemplateTokenTypes.COLON) {
+            return false;
+        }
+        var afterFirstColon = typeAt(identIndex + 2);
+        if (afterFirstColon == JjtemplateTokenTypes.IDENT) {
+            return true;
+        }
+        return afterFirstColon == JjtemplateTokenTypes.COLON && typeAt(identIndex + 3) == JjtemplateTokenTypes.IDENT;
+    }
+
+    private boolean isNamespacedFunctionName(int identIndex) {
+        return typeAt(identIndex - 1) == JjtemplateTokenTypes.COLON
+                && typeAt(identIndex - 2) == JjtemplateTokenTypes.IDENT
+                && isFunctionBoundary(identIndex - 3);
+    }
+
+    private boolean isBareFunctionCall(int identIndex) {
+        var previous = typeAt(identIndex - 1);
+        if (previous == JjtemplateTokenTypes.DOT
+                || previous == JjtemplateTokenTypes.COLON
+                || previous == JjtemplateTokenTypes.PIPE
+                || previous == JjtemplateTokenTypes.IDENT
+                || !isFunctionBoundary(identIndex - 1)) {
+            return false;
+        }
+        var next = typeAt(identIndex + 1);
+        return next == JjtemplateTokenTypes.IDENT
+                || next == JjtemplateTokenTypes.STRING
+                || next == JjtemplateTokenTypes.NUMBER
+                || next == JjtemplateTokenTypes.BOOLEAN
+                || next == JjtemplateTokenTypes.NULL
+                || next == JjtemplateTokenTypes.LPAREN
+                || next == JjtemplateTokenTypes.DOT;
+    }
+
+    private boolean isFunctionBoundary(int index) {
+        var type = typeAt(index);
+        return type == null
+                || isOpen(type)
+                || type == JjtemplateTokenTypes.COMMA
+                || type == JjtemplateTokenTypes.LPAREN
+                || type == JjtemplateTokenTypes.KEYWORD
+                || type == JjtemplateTokenTypes.PIPE;
+    }
+
+    private boolean isNamespacedFunctionPrefix(int identIndex) {
+        if (typeAt(identIndex + 1) != JjtemplateTokenTypes.COLON) {
+            return false;
+        }
+        var afterFirstColon = typeAt(identIndex + 2);
+        if (afterFirstColon == JjtemplateTokenTypes.IDENT) {
+            return isPipedIdentifier(identIndex);
+        }
+        return afterFirstColon == JjtemplateTokenTypes.COLON
+                && typeAt(identIndex + 3) == JjtemplateTokenTypes.IDENT
+                && isPipedIdentifier(identIndex);
+    }
+
+    private boolean isPipedIdentifier(int identIndex) {
+        return typeAt(identIndex) == JjtemplateTokenTypes.IDENT && typeAt(identIndex - 1) == JjtemplateTokenTypes.PIPE;
+    }
+
+    private boolean isContextVariable(int identIndex) {
+        if (!isRootVariable(identIndex)) {
+            return false;
+        }
+        var name = text.subSequence(starts[identIndex], ends[identIndex]).toString();
+        return !definitionNames.contains(name) && !rangeBindings.contains(name);
+    }
+
+    private boolean isRootVariable(int identIndex) {
+        if (typeAt(identIndex - 1) != JjtemplateTokenTypes.DOT) {
+            return false;
+        }
+        return typeAt(identIndex - 2) != JjtemplateTokenTypes.IDENT || isFunctionCall(identIndex - 2);
+    }
+
+    private boolean isDefinitionsKey() {
+        return keyStart >= 0 && regionEquals(keyStart, keyEnd, DEFINITIONS_KEY);
+    }
+
+    private boolean isDefinitionKeyword(int start, int end) {
+        return regionEquals(start, end, Keyword.RANGE.getLexem()) || regionEquals(start, end, Keyword.SWITCH.getLexem());
+    }
+
+    private boolean isIdentifier(int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        var first = text.charAt(start);
+        if (!Character.isLetter(first) && first != '_') {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            var ch = text.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (text.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOpen(IElementType tokenType) {
+        return tokenType == JjtemplateTokenTypes.OPEN_EXPR
+                || tokenType == JjtemplateTokenTypes.OPEN_COND
+                || tokenType == JjtemplateTokenTypes.OPEN_SPREAD;
+    }
+
+    private static boolean isExpressionMode(int state) {
+        var mode = JjtemplateSyntaxLexer.getMode(state);
+        return mode == JjtemplateSyntaxLexer.STATE_EXPRESSION || mode == JjtemplateSyntaxLexer.STATE_EXPRESSION_STRING;
+    }
+
+    private static boolean isValidAfterPipe(IElementType tokenType) {
+        return tokenType == JjtemplateTokenTypes.IDENT
+                || tokenType == JjtemplateTokenTypes.STRING
+                || tokenType == JjtemplateTokenTypes.NUMBER
+                || tokenType == JjtemplateTokenTypes.BOOLEAN
+                || tokenType == JjtemplateTokenTypes.NULL
+                || tokenType == JjtemplateTokenTypes.LPAREN
+                || tokenType == JjtemplateTokenTypes.DOT
+                || tokenType == JjtemplateTokenTypes.KEYWORD;
+    }
+
+    private static boolean isObject(byte kind) {
+        return kind == OBJECT || kind == DEFINITION_OBJECT;
+    }
+
+    private static TextAttributesKey mapExpressionToken(IElementType tokenType) {
+        if (isOpen(tokenType) || tokenType == JjtemplateTokenTypes.CLOSE) {
+            return DefaultLanguageHighlighterColors.BRACES;
+        }
+        if (tokenType == JjtemplateTokenTypes.KEYWORD
+                || tokenType == JjtemplateTokenTypes.BOOLEAN
+                || tokenType == JjtemplateTokenTypes.NULL) {
+            return DefaultLanguageHighlighterColors.KEYWORD;
+        }
+        if (tokenType == JjtemplateTokenTypes.NUMBER) {
+            return DefaultLanguageHighlighterColors.NUMBER;
+        }
+        if (tokenType == JjtemplateTokenTypes.PIPE
+                || tokenType == JjtemplateTokenTypes.COLON
+                || tokenType == JjtemplateTokenTypes.QUESTION) {
+            return DefaultLanguageHighlighterColors.OPERATION_SIGN;
+        }
+        if (tokenType == JjtemplateTokenTypes.DOT) {
+            return DefaultLanguageHighlighterColors.DOT;
+        }
+        if (tokenType == JjtemplateTokenTypes.COMMA) {
+            return DefaultLanguageHighlighterColors.COMMA;
+        }
+        if (tokenType == JjtemplateTokenTypes.LPAREN || tokenType == JjtemplateTokenTypes.RPAREN) {
+            return DefaultLanguageHighlighterColors.PARENTHESES;
+        }
+        if (tokenType == JjtemplateTokenTypes.STRING) {
+            return JjtemplateSyntaxHighlighter.JSON_STRING;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.formatting.Block;
+import com.intellij.formatting.ChildAttributes;
+import com.intellij.formatting.Indent;
+import com.intellij.formatting.Spacing;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.formatter.common.AbstractBlock;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Formatting block of a JSON object, array or property, or a leaf. Template blocks are leaves: the formatter never
+ * looks inside {@code {{ ... }}}, and adjacent pieces of a JSON string split around a template keep their spacing.
+ */
+final class JjtemplateBlock extends AbstractBlock {
+    private static final Spacing NONE = Spacing.createSpacing(0, 0, 0, false, 0);
+    private static final Spacing ONE_SPACE = Spacing.createSpacing(1, 1, 0, false, 0);
+    private static final Spacing LINE_BREAK = Spacing.createSpacing(0, 0, 1, false, 0);
+
+    private final Indent indent;
+    private final int indentSize;
+
+    JjtemplateBlock(@NotNull ASTNode node, @NotNull Indent indent, int indentSize) {
+        super(node, null, null);
+        this.indent = indent;
+        this.indentSize = indentSize;
+    }
+
+    @Override
+    protected List<Block> buildChildren() {
+        if (isLeaf()) {
+            return EMPTY;
+        }
+        var container = isContainer(myNode.getElementType());
+        var blocks = new ArrayList<Block>();
+        for (var child = myNode.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+            if (child.getElementType() == TokenType.WHITE_SPACE || child.getTextLength() == 0) {
+                continue;
+            }
+            var childIndent = container && !isBracket(child.getElementType())
+                    ? Indent.getSpaceIndent(indentSize)
+                    : Indent.getNoneIndent();
+            blocks.add(new JjtemplateBlock(child, childIndent, indentSize));
+        }
+        return blocks;
+    }
+
+    @Override
+    public @NotNull Indent getIndent() {
+        return indent;
+    }
+
+    @Override
+    public @Nullable Spacing getSpacing(@Nullable Block child1, @NotNull Block child2) {
+        if (!(child1 instanceof JjtemplateBlock left) || !(child2 instanceof JjtemplateBlock right)) {
+            return null;
+        }
+        var leftType = left.getNode().getElementType();
+        var rightType = right.getNode().getElementType();
+        if (rightType == JjtemplateTokenTypes.JSON_COMMA || rightType == JjtemplateTokenTypes.JSON_COLON) {
+            return NONE;
+        }
+        if (leftType == JjtemplateTokenTypes.JSON_COLON) {
+            return ONE_SPACE;
+        }
+        if (leftType == JjtemplateTokenTypes.JSON_COMMA) {
+            return LINE_BREAK;
+        }
+        if (isOpenBracket(leftType)) {
+            return isCloseBracket(rightType) ? NONE : LINE_BREAK;
+        }
+        if (isCloseBracket(rightType)) {
+            return LINE_BREAK;
+        }
+        // pieces of one JSON string, or values the parser could not separate
+        return Spacing.getReadOnlySpacing();
+    }
+
+    @Override
+    public @NotNull ChildAttributes getChildAttributes(int newChildIndex) {
+        var childIndent = isContainer(myNode.getElementType())
+                ? Indent.getSpaceIndent(indentSize)
+                : Indent.getNoneIndent();
+        return new ChildAttributes(childIndent, null);
+    }
+
+    @Override
+    public boolean isIncomplete() {
+        if (!isContainer(myNode.getElementType())) {
+            return super.isIncomplete();
+        }
+        var last = myNode.getLastChildNode();
+        return last == null || !isCloseBracket(last.getElementType());
+    }
+
+    @Override
+    public boolean isLeaf() {
+        // checked first so that lazily parsed template blocks are never expanded
+        return myNode.getElementType() instanceof JjtemplateExpressionElementType
+                || myNode.getFirstChildNode() == null;
+    }
+
+    private static boolean isContainer(IElementType type) {
+        return type == JjtemplateElementTypes.OBJECT || type == JjtemplateElementTypes.ARRAY;
+    }
+
+    private static boolean isBracket(IElementType type) {
+        return isOpenBracket(type) || isCloseBracket(type);
+    }
+
+    private static boolean isOpenBracket(IElementType type) {
+        return type == JjtemplateTokenTypes.LBRACE || type == JjtemplateTokenTypes.LBRACKET;
+    }
+
+    private static boolean isCloseBracket(IElementType type) {
+        return type == JjtemplateTokenTypes.RBRACE || type == JjtemplateTokenTypes.RBRACKET;
+    }
+}
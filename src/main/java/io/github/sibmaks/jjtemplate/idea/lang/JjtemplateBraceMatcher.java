@@ -27,8 +27,19 @@ public final class JjtemplateBraceMatcher implements PairedBraceMatcher {
         return true;
     }
 
+    /**
+     * Starts the construct of an object or array property at its key, so the brace hint shows {@code "key": {...}}.
+     */
     @Override
     public int getCodeConstructStart(PsiFile file, int openingBraceOffset) {
-        return openingBraceOffset;
+        if (file == null) {
+            return openingBraceOffset;
+        }
+        var structure = JjtemplateTokenCache.getInstance(file.getProject()).getStructure(file);
+        var member = structure.findMemberWithValueAt(openingBraceOffset);
+        if (member < 0 || structure.getKeyStart(member) < 0) {
+            return openingBraceOffset;
+        }
+        return structure.getKeyStart(member);
     }
 }
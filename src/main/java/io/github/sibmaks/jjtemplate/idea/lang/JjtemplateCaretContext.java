@@ -0,0 +1,80 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Answers whether an editor offset sits inside a template block, and how deeply nested it is, from the lexer state
+ * the editor highlighter keeps for the token before the offset: a binary search over segments the IDE already
+ * updates incrementally, whatever the size of the file.
+ */
+public final class JjtemplateCaretContext {
+    private JjtemplateCaretContext() {
+    }
+
+    public static boolean isInsideExpression(@NotNull Editor editor, int offset) {
+        return getExpressionDepth(editor, offset) > 0;
+    }
+
+    /**
+     * @return number of template blocks opened before {@code offset} and not closed yet; {@code 0} in plain JSON
+     */
+    public static int getExpressionDepth(@NotNull Editor editor, int offset) {
+        if (offset <= 0 || offset > editor.getDocument().getTextLength()) {
+            return 0;
+        }
+        if (!(editor instanceof EditorEx editorEx)) {
+            return getExpressionDepth(editor.getDocument().getImmutableCharSequence(), offset);
+        }
+        var iterator = editorEx.getHighlighter().createIterator(offset - 1);
+        if (iterator.atEnd()) {
+            return 0;
+        }
+        return getDepthAfter(iterator.getTokenType(), iterator.getState());
+    }
+
+    /**
+     * @return type of the highlighter token covering {@code offset}, or {@code null} when the editor has no
+     * highlighter to ask
+     */
+    public static @Nullable IElementType getTokenType(@NotNull Editor editor, int offset) {
+        if (!(editor instanceof EditorEx editorEx) || offset < 0 || offset >= editor.getDocument().getTextLength()) {
+            return null;
+        }
+        var iterator = editorEx.getHighlighter().createIterator(offset);
+        return iterator.atEnd() ? null : iterator.getTokenType();
+    }
+
+    // Without a highlighter the state has to come from lexing the text up to the offset.
+    private static int getExpressionDepth(@NotNull CharSequence text, int offset) {
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        while (lexer.getTokenType() != null && lexer.getTokenEnd() < offset) {
+            lexer.advance();
+        }
+        var tokenType = lexer.getTokenType();
+        return tokenType == null ? 0 : getDepthAfter(tokenType, lexer.getState());
+    }
+
+    // Depth of an offset right after the start of a token lexed in state. A block counts as open from the first
+    // character of its opener until its closer starts; a block the JSON string's closing quote cuts short stays
+    // open up to that quote, as the last token before it still carries the expression state.
+    private static int getDepthAfter(IElementType tokenType, int state) {
+        var mode = JjtemplateSyntaxLexer.getMode(state);
+        var inExpression = mode == JjtemplateSyntaxLexer.STATE_EXPRESSION
+                || mode == JjtemplateSyntaxLexer.STATE_EXPRESSION_STRING;
+        var depth = inExpression ? JjtemplateSyntaxLexer.getDepth(state) : 0;
+        if (tokenType == JjtemplateTokenTypes.OPEN_EXPR
+                || tokenType == JjtemplateTokenTypes.OPEN_COND
+                || tokenType == JjtemplateTokenTypes.OPEN_SPREAD) {
+            return depth + 1;
+        }
+        if (tokenType == JjtemplateTokenTypes.CLOSE) {
+            return Math.max(depth - 1, 0);
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.application.options.editor.CodeFoldingOptionsProvider;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+
+public final class JjtemplateCodeFoldingOptionsProvider implements CodeFoldingOptionsProvider {
+    private JCheckBox collapseLargeArrays;
+    private JSpinner largeArrayThreshold;
+
+    @Override
+    public @NotNull JComponent createComponent() {
+        collapseLargeArrays = new JCheckBox("JJTemplate: collapse arrays with more elements than");
+        largeArrayThreshold = new JSpinner(new SpinnerNumberModel(
+                JjtemplateFoldingSettings.DEFAULT_LARGE_ARRAY_THRESHOLD,
+                0,
+                Integer.MAX_VALUE,
+                100
+        ));
+        collapseLargeArrays.addActionListener(
+                event -> largeArrayThreshold.setEnabled(collapseLargeArrays.isSelected())
+        );
+
+        var panel = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        panel.add(collapseLargeArrays);
+        panel.add(largeArrayThreshold);
+        reset();
+        return panel;
+    }
+
+    @Override
+    public boolean isModified() {
+        var settings = JjtemplateFoldingSettings.getInstance();
+        return collapseLargeArrays.isSelected() != settings.isCollapseLargeArrays()
+                || getThreshold() != settings.getLargeArrayThreshold();
+    }
+
+    @Override
+    public void apply() {
+        var settings = JjtemplateFoldingSettings.getInstance();
+        settings.setCollapseLargeArrays(collapseLargeArrays.isSelected());
+        settings.setLargeArrayThreshold(getThreshold());
+    }
+
+    @Override
+    public void reset() {
+        var settings = JjtemplateFoldingSettings.getInstance();
+        collapseLargeArrays.setSelected(settings.isCollapseLargeArrays());
+        largeArrayThreshold.setValue(settings.getLargeArrayThreshold());
+        largeArrayThreshold.setEnabled(settings.isCollapseLargeArrays());
+    }
+
+    private int getThreshold() {
+        return JjtemplateFoldingSettings.normalizeThreshold(((Number) largeArrayThreshold.getValue()).intValue());
+    }
+}
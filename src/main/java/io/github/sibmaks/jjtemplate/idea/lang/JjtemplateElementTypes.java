@@ -0,0 +1,16 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.psi.tree.IElementType;
+
+public final class JjtemplateElementTypes {
+    public static final IElementType OBJECT = new IElementType("OBJECT", JjtemplateLanguage.INSTANCE);
+    public static final IElementType ARRAY = new IElementType("ARRAY", JjtemplateLanguage.INSTANCE);
+    public static final IElementType PROPERTY = new IElementType("PROPERTY", JjtemplateLanguage.INSTANCE);
+    public static final JjtemplateExpressionElementType TEMPLATE_EXPRESSION =
+            new JjtemplateExpressionElementType("TEMPLATE_EXPRESSION", false);
+    public static final JjtemplateExpressionElementType STRING_TEMPLATE_EXPRESSION =
+            new JjtemplateExpressionElementType("STRING_TEMPLATE_EXPRESSION", true);
+
+    private JjtemplateElementTypes() {
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.lexer.DelegateLexer;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IReparseableElementType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lazily parsed {@code {{ ... }}} block. The file parser only collapses the block; its tokens are built on first
+ * access, and an edit that keeps the block well-formed reparses just this node instead of the whole file.
+ * Blocks inside JSON strings are lexed as raw string content, so they use a separate instance.
+ */
+public final class JjtemplateExpressionElementType extends IReparseableElementType {
+    private final boolean inJsonString;
+
+    public JjtemplateExpressionElementType(@NotNull String debugName, boolean inJsonString) {
+        super(debugName, JjtemplateLanguage.INSTANCE);
+        this.inJsonString = inJsonString;
+    }
+
+    public boolean isInJsonString() {
+        return inJsonString;
+    }
+
+    @Override
+    protected ASTNode doParseContents(@NotNull ASTNode chameleon, @NotNull PsiElement psi) {
+        var builder = PsiBuilderFactory.getInstance()
+                .createBuilder(psi.getProject(), chameleon, createLexer(), getLanguage(), chameleon.getChars());
+        var root = builder.mark();
+        while (!builder.eof()) {
+            builder.advanceLexer();
+        }
+        root.done(this);
+        return builder.getTreeBuilt().getFirstChildNode();
+    }
+
+    @Override
+    public boolean isReparseable(@NotNull ASTNode currentNode,
+                                 @NotNull CharSequence newText,
+                                 @NotNull Language fileLanguage,
+                                 @NotNull Project project) {
+        return TemplateTextScanner.scanTemplateEnd(newText, 0, newText.length(), inJsonString) == newText.length();
+    }
+
+    private @NotNull Lexer createLexer() {
+        var lexer = new JjtemplateSyntaxLexer();
+        if (!inJsonString) {
+            return lexer;
+        }
+        return new DelegateLexer(lexer) {
+            @Override
+            public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+                super.start(buffer, startOffset, endOffset, JjtemplateSyntaxLexer.STATE_JSON_STRING);
+            }
+        };
+    }
+}
@@ -4,78 +4,109 @@ import com.intellij.lang.ASTNode;
 import com.intellij.lang.folding.FoldingBuilderEx;
 import com.intellij.lang.folding.FoldingDescriptor;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiElement;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Locale;
 
+/**
+ * Folds multi-line JSON objects and arrays. Regions are kept on the document with its stamp, so asking again for the
+ * same version is free, and {@link JjtemplateFoldingDamageTracker} records the text edited since they were built.
+ * After an edit only the innermost region enclosing it is lexed again; regions before it are kept, those after it
+ * shifted and enclosing ones stretched. The whole {@link JsonStructureIndex} is used when nothing is known about the
+ * edit or it changed the brackets of the enclosing region. A quick pass never lexes: it maps the previous regions
+ * through the edit and drops those it touched.
+ * <p>
+ * Placeholders show the member count recorded by the index, e.g. {@code [ 2,314 items ]}; the text is only built
+ * for regions the editor actually collapses. Arrays above {@link JjtemplateFoldingSettings#getLargeArrayThreshold()}
+ * start collapsed.
+ */
 public final class JjtemplateFoldingBuilder extends FoldingBuilderEx {
+    private static final Key<FoldRegions> FOLD_REGIONS_KEY = Key.create("jjtemplate.foldRegions");
+    private static final Key<FoldDamage> FOLD_DAMAGE_KEY = Key.create("jjtemplate.foldDamage");
+
     @Override
     public @NotNull FoldingDescriptor @NotNull [] buildFoldRegions(@NotNull PsiElement root,
                                                                     @NotNull Document document,
                                                                     boolean quick) {
-        var text = document.getCharsSequence();
-        var stack = new ArrayDeque<BlockStart>();
-        var result = new ArrayList<FoldingDescriptor>();
-        var inString = false;
-        var escaped = false;
-
-        for (int i = 0; i < text.length(); i++) {
-            var ch = text.charAt(i);
-            if (inString) {
-                if (escaped) {
-                    escaped = false;
-                    continue;
-                }
-                if (ch == '\\') {
-                    escaped = true;
-                    continue;
-                }
-                if (ch == '"') {
-                    inString = false;
-                }
-                continue;
-            }
-            if (TemplateTextScanner.isTemplateStart(text, i)) {
-                var templateEnd = TemplateTextScanner.findTemplateEnd(text, i, text.length());
-                if (templateEnd < 0) {
-                    break;
-                }
-                i = templateEnd - 1;
-                continue;
-            }
-            if (ch == '"') {
-                inString = true;
-                continue;
+        var stamp = document.getModificationStamp();
+        var previous = document.getUserData(FOLD_REGIONS_KEY);
+        if (previous != null && previous.stamp() == stamp && (previous.exact() || quick)) {
+            return previous.toDescriptors(root.getNode());
+        }
+
+        var damage = document.getUserData(FOLD_DAMAGE_KEY);
+        if (previous == null || damage == null || damage.baseStamp() != previous.stamp() || damage.stamp() != stamp) {
+            damage = null;
+        }
+        FoldRegions regions = null;
+        if (quick) {
+            var structure = JjtemplateTokenCache.getInstance(root.getProject()).peekStructure(document);
+            if (structure != null) {
+                regions = FoldRegions.compute(document, structure);
+            } else if (damage != null) {
+                regions = previous.shift(stamp, damage);
             }
-            if (ch == '{' || ch == '[') {
-                stack.push(new BlockStart(ch, i));
-                continue;
+        } else {
+            if (damage != null && previous.exact()) {
+                regions = previous.update(document, damage);
             }
-            if (ch == '}' || ch == ']') {
-                var expectedOpen = ch == '}' ? '{' : '[';
-                if (stack.isEmpty()) {
-                    continue;
-                }
-                var open = stack.pop();
-                if (open.ch != expectedOpen) {
-                    continue;
-                }
-                if (open.offset + 1 >= i) {
-                    continue;
-                }
-                if (!containsLineBreak(text, open.offset + 1, i)) {
-                    continue;
-                }
-                result.add(new FoldingDescriptor(root.getNode(), TextRange.create(open.offset + 1, i)));
+            if (regions == null) {
+                var structure = JjtemplateTokenCache.getInstance(root.getProject()).getStructure(document);
+                regions = FoldRegions.compute(document, structure);
             }
         }
+        if (regions == null) {
+            return FoldingDescriptor.EMPTY;
+        }
+        document.putUserData(FOLD_REGIONS_KEY, regions);
+        return regions.toDescriptors(root.getNode());
+    }
 
-        return result.toArray(FoldingDescriptor.EMPTY);
+    /**
+     * Widens the text edited since the document's fold regions were built by the change of {@code event}.
+     */
+    static void recordEdit(@NotNull DocumentEvent event) {
+        var document = event.getDocument();
+        var regions = document.getUserData(FOLD_REGIONS_KEY);
+        if (regions == null) {
+            return;
+        }
+        var damage = document.getUserData(FOLD_DAMAGE_KEY);
+        var start = event.getOffset();
+        var oldEnd = start + event.getOldLength();
+        var newEnd = start + event.getNewLength();
+        if (damage != null && damage.baseStamp() == regions.stamp() && damage.stamp() == event.getOldTimeStamp()) {
+            // the edit in the coordinates before the earlier damage
+            var currentEnd = Math.max(damage.newEnd(), oldEnd);
+            oldEnd = currentEnd - (damage.newEnd() - damage.oldEnd());
+            newEnd = currentEnd + event.getNewLength() - event.getOldLength();
+            start = Math.min(damage.start(), start);
+        } else if (regions.stamp() != event.getOldTimeStamp()) {
+            document.putUserData(FOLD_DAMAGE_KEY, null);
+            return;
+        }
+        var stamp = document.getModificationStamp();
+        document.putUserData(FOLD_DAMAGE_KEY, new FoldDamage(regions.stamp(), stamp, start, oldEnd, newEnd));
+    }
+
+    @Override
+    public @Nullable String getPlaceholderText(@NotNull ASTNode node, @NotNull TextRange range) {
+        var regions = getRegions(node);
+        var region = regions == null ? -1 : regions.find(range);
+        if (region < 0 || regions.counts()[region] < 0) {
+            return getPlaceholderText(node);
+        }
+        var count = regions.counts()[region];
+        var noun = regions.objects()[region]
+                ? count == 1 ? "property" : "properties"
+                : count == 1 ? "item" : "items";
+        return String.format(Locale.ROOT, " %,d %s ", count, noun);
     }
 
     @Override
@@ -83,20 +114,190 @@ public final class JjtemplateFoldingBuilder extends FoldingBuilderEx {
         return "...";
     }
 
+    @Override
+    public boolean isCollapsedByDefault(@NotNull FoldingDescriptor descriptor) {
+        var settings = JjtemplateFoldingSettings.getInstance();
+        if (!settings.isCollapseLargeArrays()) {
+            return false;
+        }
+        var regions = getRegions(descriptor.getElement());
+        var region = regions == null ? -1 : regions.find(descriptor.getRange());
+        return region >= 0
+                && !regions.objects()[region]
+                && regions.counts()[region] > settings.getLargeArrayThreshold();
+    }
+
     @Override
     public boolean isCollapsedByDefault(@NotNull ASTNode node) {
         return false;
     }
 
-    private static boolean containsLineBreak(CharSequence text, int fromInclusive, int toExclusive) {
-        for (int i = fromInclusive; i < toExclusive; i++) {
-            if (text.charAt(i) == '\n' || text.charAt(i) == '\r') {
-                return true;
+    private static @Nullable FoldRegions getRegions(@NotNull ASTNode node) {
+        var file = node.getPsi().getContainingFile();
+        var document = file == null ? null : file.getViewProvider().getDocument();
+        var regions = document == null ? null : document.getUserData(FOLD_REGIONS_KEY);
+        return regions != null && regions.stamp() == document.getModificationStamp() ? regions : null;
+    }
+
+    /**
+     * Text changed since the fold regions of {@code baseStamp} were built: {@code [start, oldEnd)} of that version is
+     * {@code [start, newEnd)} of the version at {@code stamp}.
+     */
+    private record FoldDamage(long baseStamp, long stamp, int start, int oldEnd, int newEnd) {
+        int delta() {
+            return newEnd - oldEnd;
+        }
+    }
+
+    /**
+     * Fold ranges of one document version, sorted by start: from just after an opening bracket to its closing
+     * bracket, with the container kind and member count ({@code -1} once an edit inside made it unknown). Regions
+     * carried over from an older version by a quick pass are not {@code exact}.
+     */
+    private record FoldRegions(long stamp,
+                               int[] starts,
+                               int[] ends,
+                               boolean[] objects,
+                               int[] counts,
+                               int size,
+                               boolean exact) {
+
+        static FoldRegions compute(Document document, JsonStructureIndex structure) {
+            var regions = new Builder(structure.size());
+            regions.addAll(document, structure, 0);
+            return regions.build(document.getModificationStamp(), true);
+        }
+
+        /**
+         * Maps the regions onto the edited version without lexing: regions before the changed text stay, those
+         * after it move by the length delta, enclosing ones stretch, and regions the change touches are dropped.
+         */
+        FoldRegions shift(long newStamp, FoldDamage damage) {
+            var regions = new Builder(size);
+            for (int i = 0; i < size; i++) {
+                // brackets sit at starts[i] - 1 and ends[i]
+                var open = starts[i] - 1;
+                var close = ends[i];
+                if (close < damage.start()) {
+                    regions.add(starts[i], ends[i], objects[i], counts[i]);
+                } else if (open >= damage.oldEnd()) {
+                    regions.add(starts[i] + damage.delta(), ends[i] + damage.delta(), objects[i], counts[i]);
+                } else if (open < damage.start() && close >= damage.oldEnd()) {
+                    regions.add(starts[i], ends[i] + damage.delta(), objects[i], -1);
+                }
             }
+            return regions.build(newStamp, false);
+        }
+
+        /**
+         * Re-derives the regions inside the innermost region enclosing the edit from a lexer pass over that region
+         * alone, which starts in plain JSON at its opening bracket. The result is exact as long as the region still
+         * closes at its shifted closing bracket, since the text after it then lexes as before.
+         *
+         * @return regions of the edited version, or {@code null} if the whole document has to be indexed
+         */
+        @Nullable FoldRegions update(Document document, FoldDamage damage) {
+            var enclosing = -1;
+            for (int i = 0; i < size && starts[i] - 1 < damage.start(); i++) {
+                if (ends[i] >= damage.oldEnd()) {
+                    enclosing = i;
+                }
+            }
+            if (enclosing < 0) {
+                return null;
+            }
+            var open = starts[enclosing] - 1;
+            var close = ends[enclosing] + damage.delta();
+            var text = document.getImmutableCharSequence();
+            var window = JsonStructureIndex.build(text.subSequence(open, close + 1));
+            if (window.size() == 0
+                    || window.getOpen(0) != 0
+                    || window.getClose(0) != close - open
+                    || window.isObject(0) != objects[enclosing]) {
+                return null;
+            }
+
+            var regions = new Builder(size + window.size());
+            var i = 0;
+            for (; i < size && starts[i] - 1 < open; i++) {
+                if (ends[i] < open) {
+                    regions.add(starts[i], ends[i], objects[i], counts[i]);
+                } else if (document.getLineNumber(starts[i] - 1) != document.getLineNumber(ends[i] + damage.delta())) {
+                    regions.add(starts[i], ends[i] + damage.delta(), objects[i], counts[i]);
+                }
+            }
+            regions.addAll(document, window, open);
+            for (; i < size; i++) {
+                if (starts[i] - 1 > ends[enclosing]) {
+                    regions.add(starts[i] + damage.delta(), ends[i] + damage.delta(), objects[i], counts[i]);
+                }
+            }
+            return regions.build(document.getModificationStamp(), true);
+        }
+
+        /**
+         * @return index of the region covering exactly {@code range}, or {@code -1}
+         */
+        int find(TextRange range) {
+            var region = Arrays.binarySearch(starts, 0, size, range.getStartOffset());
+            return region >= 0 && ends[region] == range.getEndOffset() ? region : -1;
+        }
+
+        FoldingDescriptor[] toDescriptors(ASTNode node) {
+            var result = new FoldingDescriptor[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = new FoldingDescriptor(node, TextRange.create(starts[i], ends[i]));
+            }
+            return result;
         }
-        return false;
     }
 
-    private record BlockStart(char ch, int offset) {
+    private static final class Builder {
+        private int[] starts;
+        private int[] ends;
+        private boolean[] objects;
+        private int[] counts;
+        private int size;
+
+        private Builder(int capacity) {
+            starts = new int[Math.max(capacity, 1)];
+            ends = new int[starts.length];
+            objects = new boolean[starts.length];
+            counts = new int[starts.length];
+        }
+
+        // multi-line containers of a structure indexed from offset base of the document
+        private void addAll(Document document, JsonStructureIndex structure, int base) {
+            for (int container = 0; container < structure.size(); container++) {
+                var open = base + structure.getOpen(container);
+                var close = structure.getClose(container);
+                if (close < 0) {
+                    continue;
+                }
+                close += base;
+                if (close <= open + 1 || document.getLineNumber(open) == document.getLineNumber(close)) {
+                    continue;
+                }
+                add(open + 1, close, structure.isObject(container), structure.getMemberCount(container));
+            }
+        }
+
+        private void add(int start, int end, boolean object, int count) {
+            if (size == starts.length) {
+                var capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                objects = Arrays.copyOf(objects, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            objects[size] = object;
+            counts[size++] = count;
+        }
+
+        private FoldRegions build(long stamp, boolean exact) {
+            return new FoldRegions(stamp, starts, ends, objects, counts, size, exact);
+        }
     }
 }
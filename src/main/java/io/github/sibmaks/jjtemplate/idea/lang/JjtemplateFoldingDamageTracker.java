@@ -0,0 +1,17 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tells {@link JjtemplateFoldingBuilder} which text changed since it last built the fold regions of a document, so
+ * the next pass only lexes the region around the edit.
+ */
+public final class JjtemplateFoldingDamageTracker implements DocumentListener {
+
+    @Override
+    public void documentChanged(@NotNull DocumentEvent event) {
+        JjtemplateFoldingBuilder.recordEdit(event);
+    }
+}
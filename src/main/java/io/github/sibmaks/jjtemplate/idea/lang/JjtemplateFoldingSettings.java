@@ -0,0 +1,61 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Code folding options for JJTemplate files, shown under Editor | General | Code Folding.
+ */
+@Service(Service.Level.APP)
+@State(name = "JjtemplateFoldingSettings", storages = @Storage("editor.xml"))
+public final class JjtemplateFoldingSettings implements PersistentStateComponent<JjtemplateFoldingSettings.Options> {
+    public static final int DEFAULT_LARGE_ARRAY_THRESHOLD = 1000;
+
+    private Options options = new Options();
+
+    public static @NotNull JjtemplateFoldingSettings getInstance() {
+        return ApplicationManager.getApplication().getService(JjtemplateFoldingSettings.class);
+    }
+
+    @Override
+    public @NotNull Options getState() {
+        return options;
+    }
+
+    @Override
+    public void loadState(@NotNull Options state) {
+        this.options = state;
+    }
+
+    public boolean isCollapseLargeArrays() {
+        return options.collapseLargeArrays;
+    }
+
+    public void setCollapseLargeArrays(boolean collapseLargeArrays) {
+        options.collapseLargeArrays = collapseLargeArrays;
+    }
+
+    /**
+     * @return arrays with more elements than this are collapsed when a file is opened
+     */
+    public int getLargeArrayThreshold() {
+        return normalizeThreshold(options.largeArrayThreshold);
+    }
+
+    public void setLargeArrayThreshold(int largeArrayThreshold) {
+        options.largeArrayThreshold = normalizeThreshold(largeArrayThreshold);
+    }
+
+    public static int normalizeThreshold(int threshold) {
+        return Math.max(0, threshold);
+    }
+
+    public static final class Options {
+        public boolean collapseLargeArrays = true;
+        public int largeArrayThreshold = DEFAULT_LARGE_ARRAY_THRESHOLD;
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.formatting.FormattingContext;
+import com.intellij.formatting.FormattingModel;
+import com.intellij.formatting.FormattingModelBuilder;
+import com.intellij.formatting.FormattingModelProvider;
+import com.intellij.formatting.Indent;
+import io.github.sibmaks.jjtemplate.idea.toolwindow.JjtemplateIndentOptions;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Formatting model over the JSON skeleton built by {@link JjtemplateParser}, so the platform formatter can indent
+ * on Enter, reformat pasted text and reformat ranges with its own block caching. Its layout matches
+ * {@link JjtemplateJsonLikeFormatter}: one member per line, no space before {@code :} and {@code ,}, one after
+ * {@code :}, and empty containers kept on one line.
+ */
+public final class JjtemplateFormattingModelBuilder implements FormattingModelBuilder {
+    @Override
+    public @NotNull FormattingModel createModel(@NotNull FormattingContext formattingContext) {
+        var settings = formattingContext.getCodeStyleSettings();
+        var indent = JjtemplateIndentOptions.getIndent(settings);
+        var root = new JjtemplateBlock(formattingContext.getNode(), Indent.getNoneIndent(), indent);
+        return FormattingModelProvider.createFormattingModelForPsiFile(
+                formattingContext.getContainingFile(),
+                root,
+                settings
+        );
+    }
+}
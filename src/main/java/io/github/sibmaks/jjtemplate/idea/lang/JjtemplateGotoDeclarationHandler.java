@@ -11,15 +11,13 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.TokenType;
 import com.intellij.psi.impl.FakePsiElement;
-import io.github.sibmaks.jjtemplate.lexer.TemplateLexer;
+import com.intellij.psi.tree.IElementType;
 import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
-import io.github.sibmaks.jjtemplate.lexer.api.Token;
-import io.github.sibmaks.jjtemplate.lexer.api.TokenType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,40 +32,35 @@ public final class JjtemplateGotoDeclarationHandler implements GotoDeclarationHa
             return null;
         }
 
-        var text = file.getText();
-        List<Token> tokens;
-        try {
-            tokens = new TemplateLexer(text).tokens();
-        } catch (Throwable ignored) {
+        var cache = JjtemplateTokenCache.getInstance(file.getProject());
+        var spans = cache.getTemplateSpans(file);
+        var spanIndex = spans.findContaining(offset);
+        if (spanIndex < 0) {
             return null;
         }
+        var text = file.getViewProvider().getContents();
+        var tokens = lexBlock(file, text, spans, spanIndex);
 
-        var templateRanges = buildTemplateRanges(tokens);
-        var enclosing = findEnclosingTemplate(templateRanges, offset);
-        if (enclosing == null) {
-            return null;
-        }
-
-        var tokenAtOffset = findIdentifierAtOffset(tokens, enclosing, offset);
-        if (tokenAtOffset == null) {
+        var tokenAtOffset = findIdentifierAtOffset(tokens, offset);
+        if (tokenAtOffset < 0) {
             return null;
         }
         var identifierToken = tokens.get(tokenAtOffset);
 
-        var referencePath = resolveReferencePath(tokens, enclosing, tokenAtOffset);
-        var reference = resolveReference(tokens, enclosing, tokenAtOffset);
+        var referencePath = resolveReferencePath(text, tokens, tokenAtOffset);
+        var reference = resolveReference(text, tokens, tokenAtOffset);
         if (reference == null) {
             return null;
         }
 
-        var definition = resolveDefinition(text, tokens, templateRanges, reference, referencePath, offset);
+        var definition = cache.getSymbolTable(file).getScopeTree().resolve(reference, referencePath, offset);
         if (definition == null) {
             ApplicationManager.getApplication().invokeLater(
                     () -> HintManager.getInstance().showErrorHint(
                             editor,
                             "Context-bound variable: '" + reference + "'",
-                            identifierToken.start,
-                            Math.max(identifierToken.end, identifierToken.start + 1),
+                            identifierToken.start(),
+                            Math.max(identifierToken.end(), identifierToken.start() + 1),
                             HintManager.ABOVE,
                             HintManager.HIDE_BY_ANY_KEY | HintManager.HIDE_BY_TEXT_CHANGE
                                     | HintManager.HIDE_BY_SCROLLING | HintManager.HIDE_BY_ESCAPE
@@ -78,18 +71,18 @@ public final class JjtemplateGotoDeclarationHandler implements GotoDeclarationHa
             return PsiElement.EMPTY_ARRAY;
         }
 
-        var target = file.findElementAt(definition.start());
-        if (target != null && target.getTextRange().getStartOffset() == definition.start()) {
+        var target = file.findElementAt(definition.getStartOffset());
+        if (target != null && target.getTextRange().getStartOffset() == definition.getStartOffset()) {
             return new PsiElement[]{target};
         }
 
         return new PsiElement[]{
                 new OffsetNavigationElement(
                         file,
-                        definition.start(),
-                        definition.end(),
+                        definition.getStartOffset(),
+                        definition.getEndOffset(),
                         reference,
-                        buildDefinitionPreview(text, definition)
+                        buildDefinitionPreview(text, cache.getStructure(file), definition)
                 )
         };
     }
@@ -99,540 +92,122 @@ public final class JjtemplateGotoDeclarationHandler implements GotoDeclarationHa
         return null;
     }
 
-    private static List<TemplateRange> buildTemplateRanges(List<Token> tokens) {
-        var result = new ArrayList<TemplateRange>();
-        var stack = new ArrayDeque<Integer>();
-        for (int i = 0; i < tokens.size(); i++) {
-            var token = tokens.get(i);
-            if (token.type == TokenType.OPEN_EXPR || token.type == TokenType.OPEN_COND || token.type == TokenType.OPEN_SPREAD) {
-                stack.push(i);
-                continue;
-            }
-            if (token.type == TokenType.CLOSE && !stack.isEmpty()) {
-                var openIndex = stack.pop();
-                var open = tokens.get(openIndex);
-                result.add(new TemplateRange(openIndex, i, open.start, token.end));
-            }
+    /**
+     * Tokens of the block at {@code spanIndex}, without whitespace and without the tokens of blocks nested in its
+     * string literals: the opener first, then the expression up to the closer, if any. Only the top-level block
+     * around it is lexed, starting in the state its position in the JSON gives it.
+     */
+    private static List<BlockToken> lexBlock(PsiFile file, CharSequence text, TemplateSpanIndex spans, int spanIndex) {
+        var root = spanIndex;
+        var depth = 1;
+        while (spans.getParent(root) >= 0) {
+            root = spans.getParent(root);
+            depth++;
+        }
+        var start = spans.getStart(spanIndex);
+        var end = spans.getEnd(spanIndex) < 0 ? text.length() : spans.getEnd(spanIndex);
+        var rootStart = spans.getStart(root);
+        var rootEnd = spans.getEnd(root) < 0 ? text.length() : spans.getEnd(root);
+        var initialState = isInJsonString(file, rootStart)
+                ? JjtemplateSyntaxLexer.STATE_JSON_STRING
+                : JjtemplateSyntaxLexer.STATE_JSON;
+
+        var result = new ArrayList<BlockToken>();
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, rootStart, rootEnd, initialState);
+        while (lexer.getTokenType() != null && lexer.getTokenStart() < end) {
+            var tokenType = lexer.getTokenType();
+            var tokenStart = lexer.getTokenStart();
+            var ownToken = tokenStart == start || JjtemplateSyntaxLexer.getDepth(lexer.getState()) == depth;
+            if (tokenStart >= start && ownToken && tokenType != TokenType.WHITE_SPACE) {
+                result.add(new BlockToken(tokenType, tokenStart, lexer.getTokenEnd()));
+            }
+            lexer.advance();
         }
         return result;
     }
 
-    private static TemplateRange findEnclosingTemplate(List<TemplateRange> ranges, int offset) {
-        TemplateRange match = null;
-        for (var range : ranges) {
-            if (offset >= range.start() && offset < range.end()) {
-                if (match == null || range.start() >= match.start()) {
-                    match = range;
-                }
+    private static boolean isInJsonString(PsiFile file, int offset) {
+        var element = file.findElementAt(offset);
+        for (var node = element == null ? null : element.getNode(); node != null; node = node.getTreeParent()) {
+            if (node.getElementType() instanceof JjtemplateExpressionElementType) {
+                return node.getElementType() == JjtemplateElementTypes.STRING_TEMPLATE_EXPRESSION;
             }
         }
-        return match;
+        return false;
     }
 
-    private static Integer findIdentifierAtOffset(List<Token> tokens, TemplateRange range, int offset) {
-        for (int i = range.openTokenIndex() + 1; i < range.closeTokenIndex(); i++) {
+    private static int findIdentifierAtOffset(List<BlockToken> tokens, int offset) {
+        for (int i = 1; i < tokens.size(); i++) {
             var token = tokens.get(i);
-            if (token.type != TokenType.IDENT) {
-                continue;
-            }
-            if (offset >= token.start && offset < token.end) {
+            if (token.type() == JjtemplateTokenTypes.IDENT && offset >= token.start() && offset < token.end()) {
                 return i;
             }
         }
-        return null;
+        return -1;
     }
 
-    private static String resolveReference(List<Token> tokens, TemplateRange range, int identTokenIndex) {
+    private static String resolveReference(CharSequence text, List<BlockToken> tokens, int identTokenIndex) {
         // For .a.b.c resolve any clicked segment to root 'a'.
         var idx = identTokenIndex;
-        while (idx - 2 > range.openTokenIndex()
-                && tokens.get(idx - 1).type == TokenType.DOT
-                && tokens.get(idx - 2).type == TokenType.IDENT
-                && isPathContinuation(tokens, idx - 2, range.openTokenIndex())) {
+        while (idx - 2 > 0
+                && tokens.get(idx - 1).type() == JjtemplateTokenTypes.DOT
+                && tokens.get(idx - 2).type() == JjtemplateTokenTypes.IDENT
+                && isPathContinuation(tokens, idx - 2)) {
             idx -= 2;
         }
-        if (idx - 1 > range.openTokenIndex() && tokens.get(idx - 1).type == TokenType.DOT) {
-            return tokens.get(idx).lexeme;
+        if (idx - 1 > 0 && tokens.get(idx - 1).type() == JjtemplateTokenTypes.DOT) {
+            return tokens.get(idx).lexeme(text);
         }
 
         // Also allow ctrl+click on definition names directly.
-        var next = nextNonTextToken(tokens, identTokenIndex + 1, range.closeTokenIndex());
-        if (next != null && next.type == TokenType.KEYWORD
-                && (Keyword.SWITCH.eq(next.lexeme) || Keyword.RANGE.eq(next.lexeme))) {
-            return tokens.get(identTokenIndex).lexeme;
+        if (identTokenIndex + 1 < tokens.size()) {
+            var next = tokens.get(identTokenIndex + 1);
+            var lexeme = next.lexeme(text);
+            if (next.type() == JjtemplateTokenTypes.KEYWORD
+                    && (Keyword.SWITCH.eq(lexeme) || Keyword.RANGE.eq(lexeme))) {
+                return tokens.get(identTokenIndex).lexeme(text);
+            }
         }
         return null;
     }
 
-    private static List<String> resolveReferencePath(List<Token> tokens, TemplateRange range, int identTokenIndex) {
+    private static List<String> resolveReferencePath(CharSequence text, List<BlockToken> tokens, int identTokenIndex) {
         var start = identTokenIndex;
-        while (start - 2 > range.openTokenIndex()
-                && tokens.get(start - 1).type == TokenType.DOT
-                && tokens.get(start - 2).type == TokenType.IDENT
-                && isPathContinuation(tokens, start - 2, range.openTokenIndex())) {
+        while (start - 2 > 0
+                && tokens.get(start - 1).type() == JjtemplateTokenTypes.DOT
+                && tokens.get(start - 2).type() == JjtemplateTokenTypes.IDENT
+                && isPathContinuation(tokens, start - 2)) {
             start -= 2;
         }
-        if (start - 1 <= range.openTokenIndex() || tokens.get(start - 1).type != TokenType.DOT) {
+        if (start - 1 <= 0 || tokens.get(start - 1).type() != JjtemplateTokenTypes.DOT) {
             return null;
         }
         var result = new ArrayList<String>();
         for (int i = start; i <= identTokenIndex; i += 2) {
-            result.add(tokens.get(i).lexeme);
+            result.add(tokens.get(i).lexeme(text));
         }
         return result;
     }
 
-    private static boolean isPathContinuation(List<Token> tokens, int identIndex, int openTokenIndex) {
+    private static boolean isPathContinuation(List<BlockToken> tokens, int identIndex) {
         var before = identIndex - 1;
-        return before > openTokenIndex && tokens.get(before).type == TokenType.DOT;
-    }
-
-    private static Token nextNonTextToken(List<Token> tokens, int fromInclusive, int toExclusive) {
-        for (int i = fromInclusive; i < toExclusive; i++) {
-            var token = tokens.get(i);
-            if (token.type != TokenType.TEXT) {
-                return token;
-            }
-        }
-        return null;
-    }
-
-    private static Definition resolveDefinition(String text,
-                                                List<Token> tokens,
-                                                List<TemplateRange> ranges,
-                                                String reference,
-                                                List<String> referencePath,
-                                                int usageOffset) {
-        Definition bestRangeBinding = null;
-        Definition bestNamedDefinition = null;
-
-        for (var range : ranges) {
-            // named switch/range definition: <IDENT> <KEYWORD switch|range>
-            for (int i = range.openTokenIndex() + 1; i + 1 < range.closeTokenIndex(); i++) {
-                var first = tokens.get(i);
-                var second = tokens.get(i + 1);
-                if (first.type == TokenType.IDENT
-                        && second.type == TokenType.KEYWORD
-                        && first.lexeme.equals(reference)
-                        && (Keyword.SWITCH.eq(second.lexeme) || Keyword.RANGE.eq(second.lexeme))
-                        && first.start <= usageOffset) {
-                    if (bestNamedDefinition == null || first.start >= bestNamedDefinition.start()) {
-                        bestNamedDefinition = new Definition(first.start, first.end);
-                    }
-                }
-            }
-
-            // range bindings: range <item>, <index> of ...
-            for (int i = range.openTokenIndex() + 5; i < range.closeTokenIndex(); i++) {
-                var kw = tokens.get(i - 5);
-                var item = tokens.get(i - 4);
-                var comma = tokens.get(i - 3);
-                var index = tokens.get(i - 2);
-                var of = tokens.get(i - 1);
-
-                if (kw.type != TokenType.KEYWORD || !Keyword.RANGE.eq(kw.lexeme)) {
-                    continue;
-                }
-                if (item.type != TokenType.IDENT || comma.type != TokenType.COMMA || index.type != TokenType.IDENT) {
-                    continue;
-                }
-                if (of.type != TokenType.KEYWORD || !Keyword.OF.eq(of.lexeme)) {
-                    continue;
-                }
-
-                Token binding = null;
-                if (item.lexeme.equals(reference)) {
-                    binding = item;
-                } else if (index.lexeme.equals(reference)) {
-                    binding = index;
-                }
-                if (binding == null || binding.start > usageOffset) {
-                    continue;
-                }
-
-                var valueScope = findDefinitionValueScope(text, range.end());
-                if (valueScope == null) {
-                    continue;
-                }
-                if (usageOffset < valueScope.start() || usageOffset >= valueScope.end()) {
-                    continue;
-                }
-                if (bestRangeBinding == null || binding.start >= bestRangeBinding.start()) {
-                    bestRangeBinding = new Definition(binding.start, binding.end);
-                }
-            }
-        }
-
-        if (bestRangeBinding != null) {
-            return bestRangeBinding;
-        }
-        if (bestNamedDefinition != null) {
-            return bestNamedDefinition;
-        }
-        if (referencePath != null && !referencePath.isEmpty()) {
-            var nested = findDefinitionsPathDefinition(text, referencePath, usageOffset);
-            if (nested != null) {
-                return nested;
-            }
-        }
-        return findDefinitionsKeyDefinition(text, reference, usageOffset);
-    }
-
-    private static TextSpan findDefinitionValueScope(String text, int templateEndOffset) {
-        var length = text.length();
-        var i = templateEndOffset;
-        while (i < length && Character.isWhitespace(text.charAt(i))) {
-            i++;
-        }
-        while (i < length && text.charAt(i) != ':' && text.charAt(i) != '\n' && text.charAt(i) != '\r') {
-            i++;
-        }
-        if (i >= length || text.charAt(i) != ':') {
-            return null;
-        }
-        i++;
-        while (i < length && Character.isWhitespace(text.charAt(i))) {
-            i++;
-        }
-        if (i >= length) {
-            return null;
-        }
-
-        var start = i;
-        var open = text.charAt(i);
-        if (open == '{' || open == '[') {
-            var close = open == '{' ? '}' : ']';
-            var depth = 1;
-            var inString = false;
-            var escaped = false;
-
-            for (i = i + 1; i < length; i++) {
-                var ch = text.charAt(i);
-                if (inString) {
-                    if (escaped) {
-                        escaped = false;
-                        continue;
-                    }
-                    if (ch == '\\') {
-                        escaped = true;
-                        continue;
-                    }
-                    if (ch == '"') {
-                        inString = false;
-                    }
-                    continue;
-                }
-                if (TemplateTextScanner.isTemplateStart(text, i)) {
-                    var templateEnd = TemplateTextScanner.findTemplateEnd(text, i, length);
-                    if (templateEnd < 0) {
-                        return null;
-                    }
-                    i = templateEnd - 1;
-                    continue;
-                }
-                if (ch == '"') {
-                    inString = true;
-                    continue;
-                }
-                if (ch == open) {
-                    depth++;
-                    continue;
-                }
-                if (ch == close) {
-                    depth--;
-                    if (depth == 0) {
-                        return new TextSpan(start, i + 1);
-                    }
-                }
-            }
-            return null;
-        }
-
-        var end = i;
-        while (end < length && text.charAt(end) != ',' && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
-            end++;
-        }
-        return new TextSpan(start, end);
-    }
-
-    private static Definition findDefinitionsKeyDefinition(String text, String reference, int usageOffset) {
-        var definitionsKeyIndex = text.indexOf("\"definitions\"");
-        if (definitionsKeyIndex < 0) {
-            return null;
-        }
-        var arrayStart = findNextChar(text, definitionsKeyIndex + 13, '[');
-        if (arrayStart < 0) {
-            return null;
-        }
-        var arrayEnd = findMatchingBracket(text, arrayStart, '[', ']');
-        if (arrayEnd < 0) {
-            return null;
-        }
-
-        Definition bestPrior = null;
-        Definition first = null;
-        for (int i = arrayStart + 1; i < arrayEnd; i++) {
-            if (text.charAt(i) != '"') {
-                continue;
-            }
-            var stringEnd = findStringEnd(text, i);
-            if (stringEnd < 0) {
-                break;
-            }
-            var key = text.substring(i + 1, stringEnd);
-            var colonIndex = findNextNonWs(text, stringEnd + 1, arrayEnd);
-            if (colonIndex >= 0
-                    && text.charAt(colonIndex) == ':'
-                    && key.equals(reference)) {
-                var found = new Definition(i + 1, stringEnd);
-                if (first == null) {
-                    first = found;
-                }
-                if (found.start() <= usageOffset) {
-                    bestPrior = found;
-                }
-            }
-            i = stringEnd;
-        }
-        return bestPrior != null ? bestPrior : first;
-    }
-
-    private static Definition findDefinitionsPathDefinition(String text, List<String> path, int usageOffset) {
-        if (path.isEmpty()) {
-            return null;
-        }
-        var definitionsKeyIndex = text.indexOf("\"definitions\"");
-        if (definitionsKeyIndex < 0) {
-            return null;
-        }
-        var arrayStart = findNextChar(text, definitionsKeyIndex + 13, '[');
-        if (arrayStart < 0) {
-            return null;
-        }
-        var arrayEnd = findMatchingBracket(text, arrayStart, '[', ']');
-        if (arrayEnd < 0) {
-            return null;
-        }
-
-        Definition bestPrior = null;
-        Definition first = null;
-        for (int i = arrayStart + 1; i < arrayEnd; ) {
-            i = skipWsAndCommas(text, i, arrayEnd);
-            if (i >= arrayEnd) {
-                break;
-            }
-            var valueEnd = findJsonValueEnd(text, i, arrayEnd);
-            if (valueEnd <= i) {
-                break;
-            }
-            if (text.charAt(i) == '{') {
-                var found = findKeyPathInObject(text, i, valueEnd, path, 0);
-                if (found != null) {
-                    if (first == null) {
-                        first = found;
-                    }
-                    if (found.start() <= usageOffset && (bestPrior == null || found.start() > bestPrior.start())) {
-                        bestPrior = found;
-                    }
-                }
-            }
-            i = valueEnd;
-        }
-        return bestPrior != null ? bestPrior : first;
-    }
-
-    private static Definition findKeyPathInObject(String text,
-                                                  int objectStart,
-                                                  int objectEndExclusive,
-                                                  List<String> path,
-                                                  int depth) {
-        if (depth >= path.size()) {
-            return null;
-        }
-        for (int i = objectStart + 1; i < objectEndExclusive; ) {
-            i = skipWsAndCommas(text, i, objectEndExclusive);
-            if (i >= objectEndExclusive || text.charAt(i) == '}') {
-                break;
-            }
-            if (text.charAt(i) != '"') {
-                i++;
-                continue;
-            }
-
-            var keyEnd = findStringEnd(text, i);
-            if (keyEnd < 0 || keyEnd >= objectEndExclusive) {
-                break;
-            }
-            var key = text.substring(i + 1, keyEnd);
-            var colon = findNextNonWs(text, keyEnd + 1, objectEndExclusive);
-            if (colon < 0 || text.charAt(colon) != ':') {
-                i = keyEnd + 1;
-                continue;
-            }
-
-            var valueStart = findNextNonWs(text, colon + 1, objectEndExclusive);
-            if (valueStart < 0) {
-                break;
-            }
-            var valueEnd = findJsonValueEnd(text, valueStart, objectEndExclusive);
-            if (valueEnd <= valueStart) {
-                break;
-            }
-
-            if (path.get(depth).equals(key)) {
-                if (depth == path.size() - 1) {
-                    return new Definition(i + 1, keyEnd);
-                }
-                if (text.charAt(valueStart) == '{') {
-                    var nested = findKeyPathInObject(text, valueStart, valueEnd, path, depth + 1);
-                    if (nested != null) {
-                        return nested;
-                    }
-                }
-            }
-
-            i = valueEnd;
-        }
-        return null;
-    }
-
-    private static int skipWsAndCommas(String text, int fromInclusive, int toExclusive) {
-        var i = fromInclusive;
-        while (i < toExclusive) {
-            var ch = text.charAt(i);
-            if (Character.isWhitespace(ch) || ch == ',') {
-                i++;
-                continue;
-            }
-            break;
-        }
-        return i;
+        return before > 0 && tokens.get(before).type() == JjtemplateTokenTypes.DOT;
     }
 
-    private static int findJsonValueEnd(String text, int valueStart, int limitExclusive) {
-        if (valueStart >= limitExclusive) {
-            return valueStart;
-        }
-        var start = text.charAt(valueStart);
-        if (start == '{') {
-            var end = findMatchingBracket(text, valueStart, '{', '}');
-            return end < 0 ? valueStart : Math.min(end + 1, limitExclusive);
-        }
-        if (start == '[') {
-            var end = findMatchingBracket(text, valueStart, '[', ']');
-            return end < 0 ? valueStart : Math.min(end + 1, limitExclusive);
-        }
-        if (start == '"') {
-            var end = findStringEnd(text, valueStart);
-            return end < 0 ? valueStart : Math.min(end + 1, limitExclusive);
-        }
-        var i = valueStart;
-        while (i < limitExclusive) {
-            var ch = text.charAt(i);
-            if (ch == ',' || ch == '}' || ch == ']') {
-                break;
-            }
-            i++;
-        }
-        return i;
-    }
-
-    private static int findNextChar(String text, int fromInclusive, char expected) {
-        for (int i = fromInclusive; i < text.length(); i++) {
-            if (text.charAt(i) == expected) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static int findNextNonWs(String text, int fromInclusive, int toExclusive) {
-        for (int i = fromInclusive; i < toExclusive; i++) {
-            if (!Character.isWhitespace(text.charAt(i))) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static int findMatchingBracket(String text, int startIndex, char open, char close) {
-        var depth = 1;
-        var inString = false;
-        var escaped = false;
-        for (int i = startIndex + 1; i < text.length(); i++) {
-            var ch = text.charAt(i);
-            if (inString) {
-                if (escaped) {
-                    escaped = false;
-                    continue;
-                }
-                if (ch == '\\') {
-                    escaped = true;
-                    continue;
-                }
-                if (ch == '"') {
-                    inString = false;
-                }
-                continue;
-            }
-            if (ch == '"') {
-                inString = true;
-                continue;
-            }
-            if (ch == open) {
-                depth++;
-            } else if (ch == close) {
-                depth--;
-                if (depth == 0) {
-                    return i;
-                }
-            }
-        }
-        return -1;
-    }
-
-    private static int findStringEnd(String text, int stringStartQuoteOffset) {
-        var escaped = false;
-        for (int i = stringStartQuoteOffset + 1; i < text.length(); i++) {
-            var ch = text.charAt(i);
-            if (escaped) {
-                escaped = false;
-                continue;
-            }
-            if (ch == '\\') {
-                escaped = true;
-                continue;
-            }
-            if (ch == '"') {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static String buildDefinitionPreview(String text, Definition definition) {
-        var fallback = abbreviate(text.substring(definition.start(), definition.end()).trim(), 200);
-        var scanLimit = text.length();
-        for (int i = definition.end(); i < text.length(); i++) {
-            var ch = text.charAt(i);
-            if (ch == '\n' || ch == '\r') {
-                scanLimit = i;
-                break;
-            }
-        }
-        var colon = findNextChar(text, definition.end(), ':');
-        if (colon < 0 || colon >= scanLimit) {
-            return fallback;
-        }
-        var valueStart = findNextNonWs(text, colon + 1, text.length());
-        if (valueStart < 0) {
-            return fallback;
-        }
-        var valueEnd = findJsonValueEnd(text, valueStart, text.length());
-        if (valueEnd <= valueStart) {
+    private static String buildDefinitionPreview(CharSequence text,
+                                                 JsonStructureIndex structure,
+                                                 TextRange definition) {
+        var fallback = abbreviate(definition.subSequence(text).toString().trim(), 200);
+        // Declarations in a key preview the value of the member, those in a value preview themselves.
+        var member = structure.findMember(definition.getStartOffset());
+        if (member < 0 || structure.getKeyStart(member) < 0
+                || definition.getStartOffset() >= structure.getKeyEnd(member)
+                || structure.getValueStart(member) < 0) {
             return fallback;
         }
-        return abbreviate(text.substring(valueStart, valueEnd).trim(), 220);
+        var value = text.subSequence(structure.getValueStart(member), structure.getValueEnd(member)).toString();
+        return abbreviate(value.trim(), 220);
     }
 
     private static String abbreviate(String value, int maxLength) {
@@ -642,13 +217,10 @@ public final class JjtemplateGotoDeclarationHandler implements GotoDeclarationHa
         return value.substring(0, Math.max(0, maxLength - 3)) + "...";
     }
 
-    private record TemplateRange(int openTokenIndex, int closeTokenIndex, int start, int end) {
-    }
-
-    private record Definition(int start, int end) {
-    }
-
-    private record TextSpan(int start, int end) {
+    private record BlockToken(IElementType type, int start, int end) {
+        String lexeme(CharSequence text) {
+            return text.subSequence(start, end).toString();
+        }
     }
 
     public static final class OffsetNavigationElement extends FakePsiElement {
@@ -0,0 +1,16 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The one Jackson mapper of the plugin. Mappers are thread-safe once configured, and sharing one means its
+ * serializer caches are built, and warmed on project open, only once.
+ */
+public final class JjtemplateJson {
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private JjtemplateJson() {
+    }
+}
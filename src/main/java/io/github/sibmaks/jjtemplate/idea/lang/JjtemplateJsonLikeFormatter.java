@@ -1,90 +1,192 @@
 package io.github.sibmaks.jjtemplate.idea.lang;
 
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Pretty-prints template JSON. Formatting only ever changes whitespace: the text is split into units (structural
+ * characters, strings, template blocks and literal characters) and the formatter decides the whitespace of every gap
+ * between them, so a formatted range is described by the gaps it replaces.
+ */
 public final class JjtemplateJsonLikeFormatter {
+    private static final int NO_OUTPUT = -1;
+
     private JjtemplateJsonLikeFormatter() {
     }
 
+    /**
+     * Formats text that has no cached indexes, in one streaming pass; see {@link JjtemplateStreamingFormatter}.
+     */
     public static String format(String source, int indentSize) {
         if (source == null || source.isEmpty()) {
             return "";
         }
-        var indentStep = Math.max(indentSize, 1);
         var out = new StringBuilder(source.length() + 32);
-        var indentLevel = 0;
-        var indentAppliedByBracket = new ArrayDeque<Boolean>();
-        var index = 0;
-        while (index < source.length()) {
-            var ch = source.charAt(index);
-            if (Character.isWhitespace(ch)) {
+        try {
+            JjtemplateStreamingFormatter.format(source, out, indentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Whitespace replacements that format the gaps touching {@code [rangeStart, rangeEnd]}, in document order.
+     * Scanning starts at the JSON member nearest to the range, so once the indexes are built the scan follows the
+     * range, not the text.
+     * Indents are written with tabs of {@code tabSize} columns, or with spaces when {@code tabSize} is 0.
+     */
+    public static List<WhitespaceEdit> computeEdits(CharSequence source,
+                                                    int indentSize,
+                                                    int tabSize,
+                                                    TemplateSpanIndex spans,
+                                                    JsonStructureIndex structure,
+                                                    int rangeStart,
+                                                    int rangeEnd) {
+        var edits = new ArrayList<WhitespaceEdit>();
+        var anchor = findAnchor(source, structure, rangeStart);
+        var level = anchor > 0 ? countIndentedContainers(structure, anchor) : 0;
+        GapConsumer consumer = (start, end, whitespace) -> {
+            if (!contentEquals(source, start, end, whitespace)) {
+                edits.add(new WhitespaceEdit(start, end, whitespace.toString()));
+            }
+        };
+        var indents = new IndentCache(indentSize, tabSize);
+        formatGaps(source, indents, spans, structure, anchor, level, rangeStart, rangeEnd, consumer);
+        return edits;
+    }
+
+    /**
+     * Replacement of the whitespace between {@code start} and {@code end} of the source text.
+     */
+    public record WhitespaceEdit(int start, int end, String replacement) {
+    }
+
+    private interface GapConsumer {
+        void accept(int start, int end, CharSequence whitespace);
+    }
+
+    private static void formatGaps(CharSequence source,
+                                   IndentCache indents,
+                                   TemplateSpanIndex spans,
+                                   JsonStructureIndex structure,
+                                   int from,
+                                   int initialLevel,
+                                   int rangeStart,
+                                   int rangeEnd,
+                                   GapConsumer consumer) {
+        var indentLevel = initialLevel;
+        var indentAppliedByBracket = new BracketStack();
+        for (int i = 0; i < initialLevel; i++) {
+            indentAppliedByBracket.push(true);
+        }
+        var whitespace = new StringBuilder();
+        var lastChar = NO_OUTPUT;
+        var index = from;
+        while (true) {
+            var gapStart = index;
+            while (index < source.length() && Character.isWhitespace(source.charAt(index))) {
                 index++;
-                continue;
+            }
+            if (gapStart > rangeEnd) {
+                return;
+            }
+            if (index >= source.length()) {
+                if (index >= rangeStart) {
+                    consumer.accept(gapStart, index, whitespace);
+                }
+                return;
             }
 
-            if (ch == '"') {
-                index = appendString(source, index, out);
-                continue;
+            var ch = source.charAt(index);
+            if (ch == '}' || ch == ']') {
+                if (indentAppliedByBracket.pop()) {
+                    indentLevel = Math.max(0, indentLevel - 1);
+                    appendNewlineIfNeeded(whitespace, lastChar);
+                    whitespace.append(indents.get(indentLevel));
+                }
             }
-            if (TemplateTextScanner.isTemplateStart(source, index)) {
-                index = appendTemplateBlock(source, index, out);
-                continue;
+            if (index >= rangeStart) {
+                consumer.accept(gapStart, index, whitespace);
             }
+            whitespace.setLength(0);
 
-            switch (ch) {
-                case '{', '[' -> {
-                    out.append(ch);
-                    var close = ch == '{' ? '}' : ']';
-                    var next = nextSignificantIndex(source, index + 1);
-                    if (next >= source.length() || source.charAt(next) == close) {
-                        indentAppliedByBracket.addLast(false);
-                        index++;
-                        continue;
+            int unitEnd;
+            if (ch == '"') {
+                unitEnd = findStringEnd(source, index);
+            } else if (TemplateTextScanner.isTemplateStart(source, index)) {
+                var templateEnd = spans.findEnd(index);
+                unitEnd = templateEnd < 0 ? source.length() : templateEnd;
+            } else {
+                unitEnd = index + 1;
+                switch (ch) {
+                    case '{', '[' -> {
+                        if (isEmptyContainer(source, structure, index)) {
+                            indentAppliedByBracket.push(false);
+                        } else {
+                            indentAppliedByBracket.push(true);
+                            indentLevel++;
+                            appendNewlineIfNeeded(whitespace, ch);
+                            whitespace.append(indents.get(indentLevel));
+                        }
                     }
-                    indentAppliedByBracket.addLast(true);
-                    indentLevel++;
-                    appendNewlineWithIndent(out, indentLevel, indentStep);
-                    index++;
-                }
-                case '}', ']' -> {
-                    var indented = !indentAppliedByBracket.isEmpty() && indentAppliedByBracket.removeLast();
-                    if (indented) {
-                        indentLevel = Math.max(0, indentLevel - 1);
-                        appendNewlineIfNeeded(out);
-                        appendIndent(out, indentLevel, indentStep);
+                    case ',' -> {
+                        appendNewlineIfNeeded(whitespace, ch);
+                        whitespace.append(indents.get(indentLevel));
+                    }
+                    case ':' -> whitespace.append(' ');
+                    default -> {
                     }
-                    out.append(ch);
-                    index++;
-                }
-                case ',' -> {
-                    out.append(',');
-                    appendNewlineWithIndent(out, indentLevel, indentStep);
-                    index++;
-                }
-                case ':' -> {
-                    out.append(':').append(' ');
-                    index++;
-                }
-                default -> {
-                    out.append(ch);
-                    index++;
                 }
             }
+            lastChar = source.charAt(unitEnd - 1);
+            index = unitEnd;
         }
-        return out.toString();
     }
 
-    private static int appendString(String source, int from, StringBuilder out) {
-        var index = from;
+    // Scanning resumes at the structural character before the last member starting at or before the offset;
+    // it is a '{', '[', ',' or ':' nested in exactly the containers that enclose the member.
+    private static int findAnchor(CharSequence source, JsonStructureIndex structure, int offset) {
+        var member = structure.findLastMemberAtOrBefore(offset);
+        if (member < 0) {
+            return 0;
+        }
+        var anchor = structure.getMemberStart(member) - 1;
+        while (anchor >= 0 && Character.isWhitespace(source.charAt(anchor))) {
+            anchor--;
+        }
+        if (anchor < 0) {
+            return 0;
+        }
+        var ch = source.charAt(anchor);
+        return ch == '{' || ch == '[' || ch == ',' || ch == ':' ? anchor : 0;
+    }
+
+    // Containers holding a member always get indented, so the level is the number of them enclosing the anchor.
+    private static int countIndentedContainers(JsonStructureIndex structure, int anchor) {
+        var container = structure.findContaining(anchor);
+        if (container >= 0 && structure.getOpen(container) == anchor) {
+            container = structure.getParent(container);
+        }
+        var level = 0;
+        for (; container >= 0; container = structure.getParent(container)) {
+            level++;
+        }
+        return level;
+    }
+
+    private static int findStringEnd(CharSequence source, int from) {
+        var index = from + 1;
         var escaped = false;
         while (index < source.length()) {
             var ch = source.charAt(index);
-            out.append(ch);
             if (escaped) {
                 escaped = false;
             } else if (ch == '\\') {
                 escaped = true;
-            } else if (ch == '"' && index > from) {
+            } else if (ch == '"') {
                 return index + 1;
             }
             index++;
@@ -92,17 +194,17 @@ public final class JjtemplateJsonLikeFormatter {
         return index;
     }
 
-    private static int appendTemplateBlock(String source, int from, StringBuilder out) {
-        var templateEnd = TemplateTextScanner.findTemplateEnd(source, from, source.length());
-        if (templateEnd < 0) {
-            out.append(source, from, source.length());
-            return source.length();
+    private static boolean isEmptyContainer(CharSequence source, JsonStructureIndex structure, int openIndex) {
+        var container = structure.findContainerAt(openIndex);
+        if (container >= 0 && structure.getClose(container) >= 0) {
+            return structure.getMemberCount(container) == 0;
         }
-        out.append(source, from, templateEnd);
-        return templateEnd;
+        var close = source.charAt(openIndex) == '{' ? '}' : ']';
+        var next = nextSignificantIndex(source, openIndex + 1);
+        return next >= source.length() || source.charAt(next) == close;
     }
 
-    private static int nextSignificantIndex(String source, int from) {
+    private static int nextSignificantIndex(CharSequence source, int from) {
         var index = from;
         while (index < source.length() && Character.isWhitespace(source.charAt(index))) {
             index++;
@@ -110,24 +212,24 @@ public final class JjtemplateJsonLikeFormatter {
         return index;
     }
 
-    private static void appendNewlineIfNeeded(StringBuilder out) {
-        if (out.isEmpty()) {
-            return;
+    private static boolean contentEquals(CharSequence source, int start, int end, CharSequence whitespace) {
+        if (end - start != whitespace.length()) {
+            return false;
         }
-        if (out.charAt(out.length() - 1) == '\n') {
-            return;
+        for (int i = 0; i < whitespace.length(); i++) {
+            if (source.charAt(start + i) != whitespace.charAt(i)) {
+                return false;
+            }
         }
-        out.append('\n');
+        return true;
     }
 
-    private static void appendNewlineWithIndent(StringBuilder out, int indentLevel, int indentStep) {
-        appendNewlineIfNeeded(out);
-        appendIndent(out, indentLevel, indentStep);
-    }
-
-    private static void appendIndent(StringBuilder out, int indentLevel, int indentStep) {
-        var spaces = Math.max(0, indentLevel * indentStep);
-        out.append(" ".repeat(spaces));
+    // lastChar is the last character written before the whitespace, or NO_OUTPUT at the start of the text
+    private static void appendNewlineIfNeeded(StringBuilder whitespace, int lastChar) {
+        var previous = whitespace.isEmpty() ? lastChar : whitespace.charAt(whitespace.length() - 1);
+        if (previous == NO_OUTPUT || previous == '\n') {
+            return;
+        }
+        whitespace.append('\n');
     }
-
 }
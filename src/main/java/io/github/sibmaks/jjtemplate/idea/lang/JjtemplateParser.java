@@ -0,0 +1,128 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiParser;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Builds the JSON skeleton of a template (objects, arrays, properties) and collapses every top-level
+ * {@code {{ ... }}} block into a lazily parsed {@link JjtemplateExpressionElementType} node.
+ * The parser never reports errors: malformed JSON is flagged by the annotator.
+ */
+public final class JjtemplateParser implements PsiParser {
+    private boolean inJsonString;
+
+    @Override
+    public @NotNull ASTNode parse(@NotNull IElementType root, @NotNull PsiBuilder builder) {
+        inJsonString = false;
+        var marker = builder.mark();
+        while (!builder.eof()) {
+            parseValue(builder);
+        }
+        marker.done(root);
+        return builder.getTreeBuilt();
+    }
+
+    private void parseValue(PsiBuilder builder) {
+        var tokenType = builder.getTokenType();
+        if (tokenType == JjtemplateTokenTypes.LBRACE) {
+            parseContainer(builder, JjtemplateTokenTypes.RBRACE, JjtemplateElementTypes.OBJECT);
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.LBRACKET) {
+            parseContainer(builder, JjtemplateTokenTypes.RBRACKET, JjtemplateElementTypes.ARRAY);
+            return;
+        }
+        if (isTemplateOpen(tokenType)) {
+            parseTemplate(builder);
+            return;
+        }
+        if (tokenType == JjtemplateTokenTypes.JSON_STRING) {
+            trackJsonString(builder.getTokenSequence());
+        }
+        builder.advanceLexer();
+    }
+
+    private void parseContainer(PsiBuilder builder, IElementType closeType, IElementType containerType) {
+        var container = builder.mark();
+        builder.advanceLexer();
+        while (!builder.eof() && !isContainerClose(builder.getTokenType())) {
+            if (builder.getTokenType() == JjtemplateTokenTypes.JSON_COMMA) {
+                builder.advanceLexer();
+                continue;
+            }
+            if (containerType == JjtemplateElementTypes.OBJECT) {
+                parseProperty(builder);
+            } else {
+                parseValue(builder);
+            }
+        }
+        if (builder.getTokenType() == closeType) {
+            builder.advanceLexer();
+        }
+        container.done(containerType);
+    }
+
+    private void parseProperty(PsiBuilder builder) {
+        var property = builder.mark();
+        while (!builder.eof()
+                && builder.getTokenType() != JjtemplateTokenTypes.JSON_COMMA
+                && !isContainerClose(builder.getTokenType())) {
+            parseValue(builder);
+        }
+        property.done(JjtemplateElementTypes.PROPERTY);
+    }
+
+    // The block ends with the closer of its opener, or where the lexer gave it up: at the end of the text or at
+    // the JSON string part that follows once the enclosing JSON string ends.
+    private void parseTemplate(PsiBuilder builder) {
+        var template = builder.mark();
+        var depth = 0;
+        do {
+            var tokenType = builder.getTokenType();
+            if (isTemplateOpen(tokenType)) {
+                depth++;
+            } else if (tokenType == JjtemplateTokenTypes.CLOSE) {
+                depth--;
+            }
+            builder.advanceLexer();
+        } while (depth > 0 && !builder.eof() && builder.getTokenType() != JjtemplateTokenTypes.JSON_STRING);
+        template.collapse(inJsonString
+                ? JjtemplateElementTypes.STRING_TEMPLATE_EXPRESSION
+                : JjtemplateElementTypes.TEMPLATE_EXPRESSION);
+    }
+
+    // JSON string parts are split around template blocks; follow the lexer to know whether a block
+    // is raw string content.
+    private void trackJsonString(CharSequence tokenText) {
+        var index = 0;
+        if (!inJsonString) {
+            inJsonString = true;
+            index = 1;
+        }
+        while (index < tokenText.length()) {
+            var ch = tokenText.charAt(index);
+            if (ch == '\\') {
+                index += 2;
+                continue;
+            }
+            if (ch == '"') {
+                inJsonString = false;
+                return;
+            }
+            index++;
+        }
+    }
+
+    private static boolean isContainerClose(IElementType tokenType) {
+        return tokenType == JjtemplateTokenTypes.RBRACE || tokenType == JjtemplateTokenTypes.RBRACKET;
+    }
+
+    private static boolean isTemplateOpen(IElementType tokenType) {
+        return tokenType == JjtemplateTokenTypes.OPEN_EXPR
+                || tokenType == JjtemplateTokenTypes.OPEN_COND
+                || tokenType == JjtemplateTokenTypes.OPEN_SPREAD;
+    }
+}
@@ -3,7 +3,6 @@ package io.github.sibmaks.jjtemplate.idea.lang;
 import com.intellij.extapi.psi.ASTWrapperPsiElement;
 import com.intellij.lang.ASTNode;
 import com.intellij.lang.ParserDefinition;
-import com.intellij.lang.PsiBuilder;
 import com.intellij.lang.PsiParser;
 import com.intellij.lexer.Lexer;
 import com.intellij.openapi.project.Project;
@@ -24,14 +23,7 @@ public final class JjtemplateParserDefinition implements ParserDefinition {
 
     @Override
     public @NotNull PsiParser createParser(Project project) {
-        return (root, builder) -> {
-            PsiBuilder.Marker marker = builder.mark();
-            while (!builder.eof()) {
-                builder.advanceLexer();
-            }
-            marker.done(root);
-            return builder.getTreeBuilt();
-        };
+        return new JjtemplateParser();
     }
 
     @Override
@@ -51,6 +43,9 @@ public final class JjtemplateParserDefinition implements ParserDefinition {
 
     @Override
     public @NotNull PsiElement createElement(ASTNode node) {
+        if (node.getElementType() instanceof JjtemplateExpressionElementType) {
+            return new JjtemplateTemplateExpression(node);
+        }
         return new ASTWrapperPsiElement(node);
     }
 
@@ -7,9 +7,17 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.codeStyle.CodeStyleSettings;
 import com.intellij.psi.impl.source.codeStyle.PostFormatProcessor;
+import com.intellij.util.DocumentUtil;
+import io.github.sibmaks.jjtemplate.idea.toolwindow.JjtemplateIndentOptions;
 import org.jetbrains.annotations.NotNull;
 
+/**
+ * Formats the requested range of a template by replacing only the whitespace that differs from the formatted text,
+ * so reformatting a selection leaves the rest of the document, its undo history and highlighting untouched.
+ */
 public final class JjtemplatePostFormatProcessor implements PostFormatProcessor {
+    private static final int BULK_EDIT_THRESHOLD = 1000;
+
     @Override
     public @NotNull PsiElement processElement(@NotNull PsiElement source, @NotNull CodeStyleSettings settings) {
         return source;
@@ -27,16 +35,38 @@ public final class JjtemplatePostFormatProcessor implements PostFormatProcessor
             return rangeToReformat;
         }
 
-        var indentSize = settings.getIndentOptions(source.getFileType()).INDENT_SIZE;
-        var before = document.getText();
-        var after = JjtemplateJsonLikeFormatter.format(before, indentSize);
-        if (before.equals(after)) {
+        // the same indent as the formatting model, so the two never rewrite each other's whitespace
+        var indentSize = JjtemplateIndentOptions.getIndent(settings);
+        var tabSize = JjtemplateIndentOptions.getTabSize(settings);
+        var cache = JjtemplateTokenCache.getInstance(source.getProject());
+        var edits = JjtemplateJsonLikeFormatter.computeEdits(
+                document.getImmutableCharSequence(),
+                indentSize,
+                tabSize,
+                cache.getTemplateSpans(document),
+                cache.getStructure(document),
+                rangeToReformat.getStartOffset(),
+                rangeToReformat.getEndOffset()
+        );
+        if (edits.isEmpty()) {
             return rangeToReformat;
         }
 
-        document.replaceString(0, before.length(), after);
+        var delta = 0;
+        for (var edit : edits) {
+            delta += edit.replacement().length() - (edit.end() - edit.start());
+        }
+        var start = Math.min(rangeToReformat.getStartOffset(), edits.get(0).start());
+        var end = Math.max(rangeToReformat.getEndOffset(), edits.get(edits.size() - 1).end()) + delta;
+        // Applied back to front so earlier offsets stay valid.
+        DocumentUtil.executeInBulk(document, edits.size() > BULK_EDIT_THRESHOLD, () -> {
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                var edit = edits.get(i);
+                document.replaceString(edit.start(), edit.end(), edit.replacement());
+            }
+        });
         PsiDocumentManager.getInstance(source.getProject()).commitDocument(document);
-        return TextRange.create(0, after.length());
+        return TextRange.create(start, end);
     }
 
     private static Document getDocument(PsiFile source) {
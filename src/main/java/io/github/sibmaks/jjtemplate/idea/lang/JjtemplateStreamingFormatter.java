@@ -0,0 +1,237 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Pretty-prints template JSON as it is read, one character at a time, in memory bounded by the nesting depth: the
+ * input is never held as a whole and no index is built. Text can be fed in chunks of any size; {@link #finish()}
+ * ends it. Produces the same layout as {@link JjtemplateJsonLikeFormatter}, but tells an empty container by looking
+ * at the next significant character and finds template blocks the way {@code TemplateTextScanner} does.
+ * <p>
+ * The class only depends on the JDK, so it can also run outside the IDE, e.g. in a batch job.
+ */
+public final class JjtemplateStreamingFormatter {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int NO_OUTPUT = -1;
+
+    private static final byte JSON = 0;
+    private static final byte JSON_STRING = 1;
+    // a '{' was written; the next character tells whether it opens a container or a template block
+    private static final byte BRACE = 2;
+    private static final byte TEMPLATE = 3;
+
+    private static final byte EXPRESSION = 0;
+    private static final byte SINGLE_QUOTED = 1;
+    private static final byte DOUBLE_QUOTED = 2;
+
+    private final Appendable out;
+    private final IndentCache indents;
+    private final BracketStack indentAppliedByBracket = new BracketStack();
+    private int indentLevel;
+    private int lastChar = NO_OUTPUT;
+    private byte mode = JSON;
+    // opening bracket whose emptiness is decided by the next significant character, or 0
+    private char pendingOpen;
+    private boolean escaped;
+
+    // template blocks and the string literals nested in them, innermost last
+    private byte[] templateKinds = new byte[4];
+    private int templateDepth;
+    // '}' seen in an expression, or '{' seen in a string literal, waiting for the next character
+    private boolean templateLookahead;
+
+    public JjtemplateStreamingFormatter(Appendable out, int indentSize) {
+        this.out = out;
+        this.indents = new IndentCache(indentSize);
+    }
+
+    public static void format(CharSequence source, Appendable out, int indentSize) throws IOException {
+        var formatter = new JjtemplateStreamingFormatter(out, indentSize);
+        formatter.accept(source);
+        formatter.finish();
+    }
+
+    /**
+     * Formats everything {@code in} yields into {@code out} and flushes it; neither stream is closed.
+     */
+    public static void format(Reader in, Writer out, int indentSize) throws IOException {
+        var writer = out instanceof BufferedWriter ? out : new BufferedWriter(out, BUFFER_SIZE);
+        var formatter = new JjtemplateStreamingFormatter(writer, indentSize);
+        var buffer = new char[BUFFER_SIZE];
+        for (var read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            formatter.accept(buffer, 0, read);
+        }
+        formatter.finish();
+        writer.flush();
+    }
+
+    public void accept(CharSequence chunk) throws IOException {
+        for (int i = 0; i < chunk.length(); i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    public void accept(char[] chunk, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            accept(chunk[i]);
+        }
+    }
+
+    /**
+     * Ends the input. Unterminated strings and template blocks are left as they were written.
+     */
+    public void finish() {
+        // a trailing '{' opens an empty container, which needs nothing more
+        mode = JSON;
+        pendingOpen = 0;
+    }
+
+    private void accept(char ch) throws IOException {
+        switch (mode) {
+            case JSON -> acceptJson(ch);
+            case JSON_STRING -> {
+                write(ch);
+                if (escaped) {
+                    escaped = false;
+                } else if (ch == '\\') {
+                    escaped = true;
+                } else if (ch == '"') {
+                    mode = JSON;
+                }
+            }
+            case BRACE -> {
+                if (ch == '{' || ch == '?' || ch == '.') {
+                    write(ch);
+                    mode = TEMPLATE;
+                    pushTemplate(EXPRESSION);
+                } else {
+                    mode = JSON;
+                    pendingOpen = '{';
+                    acceptJson(ch);
+                }
+            }
+            default -> acceptTemplate(ch);
+        }
+    }
+
+    private void acceptJson(char ch) throws IOException {
+        if (Character.isWhitespace(ch)) {
+            return;
+        }
+        if (pendingOpen != 0) {
+            var close = pendingOpen == '{' ? '}' : ']';
+            pendingOpen = 0;
+            if (ch == close) {
+                write(ch);
+                return;
+            }
+            indentAppliedByBracket.push(true);
+            indentLevel++;
+            writeNewlineWithIndent();
+        }
+        switch (ch) {
+            case '"' -> {
+                write(ch);
+                mode = JSON_STRING;
+            }
+            case '{' -> {
+                write(ch);
+                mode = BRACE;
+            }
+            case '[' -> {
+                write(ch);
+                pendingOpen = '[';
+            }
+            case '}', ']' -> {
+                if (indentAppliedByBracket.pop()) {
+                    indentLevel = Math.max(0, indentLevel - 1);
+                    writeNewlineWithIndent();
+                }
+                write(ch);
+            }
+            case ',' -> {
+                write(ch);
+                writeNewlineWithIndent();
+            }
+            case ':' -> {
+                write(ch);
+                write(' ');
+            }
+            default -> write(ch);
+        }
+    }
+
+    private void acceptTemplate(char ch) throws IOException {
+        write(ch);
+        var kind = templateKinds[templateDepth - 1];
+        if (kind == EXPRESSION) {
+            if (templateLookahead) {
+                templateLookahead = false;
+                if (ch == '}') {
+                    popTemplate();
+                    return;
+                }
+            }
+            if (ch == '}') {
+                templateLookahead = true;
+            } else if (ch == '\'') {
+                pushTemplate(SINGLE_QUOTED);
+            } else if (ch == '"') {
+                pushTemplate(DOUBLE_QUOTED);
+            }
+            return;
+        }
+
+        if (escaped) {
+            escaped = false;
+            return;
+        }
+        if (templateLookahead) {
+            templateLookahead = false;
+            if (ch == '{' || ch == '?' || ch == '.') {
+                pushTemplate(EXPRESSION);
+                return;
+            }
+        }
+        if (ch == '\\') {
+            escaped = true;
+        } else if (ch == (kind == SINGLE_QUOTED ? '\'' : '"')) {
+            popTemplate();
+        } else if (ch == '{') {
+            templateLookahead = true;
+        }
+    }
+
+    private void pushTemplate(byte kind) {
+        if (templateDepth == templateKinds.length) {
+            templateKinds = Arrays.copyOf(templateKinds, templateDepth * 2);
+        }
+        templateKinds[templateDepth++] = kind;
+    }
+
+    private void popTemplate() {
+        if (--templateDepth == 0) {
+            mode = JSON;
+        }
+    }
+
+    private void writeNewlineWithIndent() throws IOException {
+        if (lastChar != NO_OUTPUT && lastChar != '\n') {
+            write('\n');
+        }
+        var indent = indents.get(indentLevel);
+        if (!indent.isEmpty()) {
+            out.append(indent);
+            lastChar = ' ';
+        }
+    }
+
+    private void write(char ch) throws IOException {
+        out.append(ch);
+        lastChar = ch;
+    }
+}
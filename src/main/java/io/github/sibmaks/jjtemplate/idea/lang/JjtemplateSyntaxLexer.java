@@ -1,78 +1,106 @@
 package io.github.sibmaks.jjtemplate.idea.lang;
 
 import com.intellij.lexer.LexerBase;
+import com.intellij.psi.TokenType;
 import com.intellij.psi.tree.IElementType;
-import io.github.sibmaks.jjtemplate.lexer.TemplateLexer;
-import io.github.sibmaks.jjtemplate.lexer.api.Token;
-import io.github.sibmaks.jjtemplate.lexer.api.TokenType;
+import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collections;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Editor lexer for JJTemplate files.
+ * <p>
+ * A single-pass state machine tokenizes JSON structure, JSON string bodies and embedded template expressions
+ * together, including blocks nested in expression string literals. Tokens are produced lazily, one at a time, and
+ * every token reports the state the lexer was in at its start. An opener switches to expression mode at once, like
+ * the upstream template lexer, without looking for its closer: a block that is never closed runs to the end of the
+ * text, or to the quote that ends the JSON string it sits in. Only top-level JSON text uses the initial state
+ * {@link #STATE_JSON}, so the editor highlighter restarts from the closest preceding JSON token instead of
+ * re-lexing the whole file, and typing the missing {@code }}} later re-lexes from there.
+ * <p>
+ * The lexer reads the buffer in place and keeps the current token in reusable primitive arrays
+ * (type index, start, end, state), so a pass allocates nothing per token.
+ */
 public final class JjtemplateSyntaxLexer extends LexerBase {
+    public static final int STATE_JSON = 0;
+    public static final int STATE_JSON_STRING = 1;
+    public static final int STATE_EXPRESSION = 2;
+    public static final int STATE_EXPRESSION_STRING = 3;
+
+    // state layout: mode (2 bits) | in JSON string flag | depth (5 bits) | string literal quote per depth level
+    private static final int MODE_MASK = 0b11;
+    private static final int IN_JSON_STRING_FLAG = 0b100;
+    private static final int DEPTH_SHIFT = 3;
+    private static final int DEPTH_MASK = 0x1F;
+    private static final int QUOTES_SHIFT = 8;
+    private static final int MAX_DEPTH = 23;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final String[] KEYWORDS = Arrays.stream(Keyword.values())
+            .map(Keyword::getLexem)
+            .toArray(String[]::new);
+
+    private short[] tokenTypes = new short[INITIAL_CAPACITY];
+    private int[] tokenStarts = new int[INITIAL_CAPACITY];
+    private int[] tokenEnds = new int[INITIAL_CAPACITY];
+    private int[] tokenStates = new int[INITIAL_CAPACITY];
+    private int chunkSize;
     private CharSequence buffer = "";
-    private int startOffset;
     private int endOffset;
-    private List<Lexeme> tokens = Collections.emptyList();
-    private int index;
+    private int chunkIndex;
+    private int nextOffset;
+    private int nextState;
 
     @Override
     public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
         this.buffer = buffer;
-        this.startOffset = startOffset;
         this.endOffset = endOffset;
-        this.index = 0;
-        var source = buffer.subSequence(startOffset, endOffset).toString();
-        try {
-            this.tokens = toLexemes(normalizeTokens(new TemplateLexer(source).tokens(), source), source);
-        } catch (Throwable e) {
-            this.tokens = fallbackTokens(source);
-        }
+        this.nextOffset = startOffset;
+        this.nextState = initialState;
+        this.chunkSize = 0;
+        this.chunkIndex = 0;
+        fillChunk();
     }
 
     @Override
     public int getState() {
-        return 0;
+        if (chunkIndex >= chunkSize) {
+            return nextState;
+        }
+        return tokenStates[chunkIndex];
     }
 
     @Override
     public @Nullable IElementType getTokenType() {
-        if (index >= tokens.size()) {
+        if (chunkIndex >= chunkSize) {
             return null;
         }
-        return tokens.get(index).type;
+        return IElementType.find(tokenTypes[chunkIndex]);
     }
 
     @Override
     public int getTokenStart() {
-        if (index >= tokens.size()) {
+        if (chunkIndex >= chunkSize) {
             return endOffset;
         }
-        return startOffset + tokens.get(index).start();
+        return tokenStarts[chunkIndex];
     }
 
     @Override
     public int getTokenEnd() {
-        if (index >= tokens.size()) {
+        if (chunkIndex >= chunkSize) {
             return endOffset;
         }
-        var token = tokens.get(index);
-        var tokenStart = startOffset + token.start();
-        var tokenEnd = startOffset + token.end();
-        if (tokenEnd <= tokenStart) {
-            return Math.min(endOffset, tokenStart + 1);
-        }
-        return Math.min(endOffset, tokenEnd);
+        return tokenEnds[chunkIndex];
     }
 
     @Override
     public void advance() {
-        if (index < tokens.size()) {
-            index++;
+        if (chunkIndex < chunkSize) {
+            chunkIndex++;
         }
+        fillChunk();
     }
 
     @Override
@@ -85,228 +113,344 @@ public final class JjtemplateSyntaxLexer extends LexerBase {
         return endOffset;
     }
 
-    private static IElementType mapType(TokenType tokenType) {
-        return switch (tokenType) {
-            case TEXT -> JjtemplateTokenTypes.TEXT;
-            case OPEN_EXPR -> JjtemplateTokenTypes.OPEN_EXPR;
-            case OPEN_COND -> JjtemplateTokenTypes.OPEN_COND;
-            case OPEN_SPREAD -> JjtemplateTokenTypes.OPEN_SPREAD;
-            case CLOSE -> JjtemplateTokenTypes.CLOSE;
-            case PIPE -> JjtemplateTokenTypes.PIPE;
-            case DOT -> JjtemplateTokenTypes.DOT;
-            case COMMA -> JjtemplateTokenTypes.COMMA;
-            case COLON -> JjtemplateTokenTypes.COLON;
-            case QUESTION -> JjtemplateTokenTypes.QUESTION;
-            case LPAREN -> JjtemplateTokenTypes.LPAREN;
-            case RPAREN -> JjtemplateTokenTypes.RPAREN;
-            case STRING -> JjtemplateTokenTypes.STRING;
-            case NUMBER -> JjtemplateTokenTypes.NUMBER;
-            case BOOLEAN -> JjtemplateTokenTypes.BOOLEAN;
-            case NULL -> JjtemplateTokenTypes.NULL;
-            case IDENT -> JjtemplateTokenTypes.IDENT;
-            case KEYWORD -> JjtemplateTokenTypes.KEYWORD;
-        };
+    public static int getMode(int state) {
+        return state & MODE_MASK;
+    }
+
+    public static int getDepth(int state) {
+        return (state >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    private static boolean isInJsonString(int state) {
+        return getMode(state) == STATE_JSON_STRING || (state & IN_JSON_STRING_FLAG) != 0;
+    }
+
+    private static int packState(int mode, int depth, int quotes, boolean inJsonString) {
+        return mode
+                | (inJsonString ? IN_JSON_STRING_FLAG : 0)
+                | (depth << DEPTH_SHIFT)
+                | (quotes << QUOTES_SHIFT);
+    }
+
+    private static int getQuotes(int state) {
+        return state >>> QUOTES_SHIFT;
     }
 
-    private static List<Lexeme> toLexemes(List<Token> sourceTokens, String source) {
-        if (source.isEmpty()) {
-            return Collections.emptyList();
+    private static int quoteBit(int depth) {
+        return 1 << (depth - 1);
+    }
+
+    private void fillChunk() {
+        while (chunkIndex >= chunkSize && nextOffset < endOffset) {
+            chunkSize = 0;
+            chunkIndex = 0;
+            lexChunk();
         }
-        var result = new ArrayList<Lexeme>(sourceTokens.size());
-        for (var token : sourceTokens) {
-            if (token.type == TokenType.TEXT) {
-                appendPlainTextTokens(source, token.start, token.end, result);
-                continue;
-            }
-            if (token.type == TokenType.STRING) {
-                appendStringToken(source, token.start, token.end, result);
-                continue;
-            }
-            result.add(new Lexeme(mapType(token.type), token.start, token.end));
+    }
+
+    private void lexChunk() {
+        var offset = nextOffset;
+        if (getMode(nextState) == STATE_EXPRESSION_STRING) {
+            lexExpressionStringPart(endOffset);
+            return;
+        }
+        if (getMode(nextState) == STATE_EXPRESSION) {
+            lexExpressionToken(endOffset);
+            return;
+        }
+        if (TemplateTextScanner.isTemplateStart(buffer, offset) && offset + 1 < endOffset) {
+            lexTemplateOpen(offset);
+            return;
+        }
+        if (nextState == STATE_JSON_STRING) {
+            lexJsonStringPart(offset, offset);
+            return;
+        }
+        var ch = buffer.charAt(offset);
+        if (ch == '"') {
+            lexJsonStringPart(offset, offset + 1);
+            return;
+        }
+        var delimiterType = mapPlainDelimiter(ch);
+        if (delimiterType != null) {
+            addToken(delimiterType, offset, offset + 1, STATE_JSON);
+            nextOffset = offset + 1;
+            return;
         }
-        result = sanitizeLexemes(result, source);
-        if (result.isEmpty()) {
-            return fallbackTokens(source);
+        var whitespace = Character.isWhitespace(ch);
+        var cursor = offset + 1;
+        while (cursor < endOffset) {
+            var next = buffer.charAt(cursor);
+            if (Character.isWhitespace(next) != whitespace
+                    || next == '"'
+                    || mapPlainDelimiter(next) != null
+                    || TemplateTextScanner.isTemplateStart(buffer, cursor)) {
+                break;
+            }
+            cursor++;
         }
-        return result;
+        addToken(whitespace ? TokenType.WHITE_SPACE : JjtemplateTokenTypes.TEXT, offset, cursor, STATE_JSON);
+        nextOffset = cursor;
     }
 
-    private static ArrayList<Lexeme> sanitizeLexemes(List<Lexeme> sourceLexemes, String source) {
-        var sourceLength = source.length();
-        var sanitized = new ArrayList<Lexeme>(sourceLexemes.size());
-        var cursor = 0;
-        for (var lexeme : sourceLexemes) {
-            var start = Math.max(0, Math.min(lexeme.start(), sourceLength));
-            var end = Math.max(0, Math.min(lexeme.end(), sourceLength));
-            if (start < cursor) {
-                start = cursor;
-            }
-            if (start > cursor) {
-                appendPlainTextTokens(source, cursor, start, sanitized);
-                cursor = start;
-            }
-            if (end <= start) {
+    private void lexJsonStringPart(int offset, int contentStart) {
+        var startState = nextState;
+        var cursor = contentStart;
+        var closed = false;
+        while (cursor < endOffset) {
+            var ch = buffer.charAt(cursor);
+            if (ch == '\\') {
+                cursor += 2;
                 continue;
             }
-            sanitized.add(new Lexeme(lexeme.type(), start, end));
-            cursor = end;
-            if (cursor >= sourceLength) {
+            if (ch == '"') {
+                cursor++;
+                closed = true;
                 break;
             }
+            if (TemplateTextScanner.isTemplateStart(buffer, cursor)) {
+                break;
+            }
+            cursor++;
         }
-        if (cursor < sourceLength) {
-            appendPlainTextTokens(source, cursor, sourceLength, sanitized);
-        }
-        return sanitized;
+        cursor = Math.min(cursor, endOffset);
+        addToken(JjtemplateTokenTypes.JSON_STRING, offset, cursor, startState);
+        nextOffset = cursor;
+        nextState = closed ? STATE_JSON : STATE_JSON_STRING;
     }
 
-    private static void appendStringToken(String source, int from, int to, List<Lexeme> out) {
-        if (to - from < 2) {
-            out.add(new Lexeme(JjtemplateTokenTypes.STRING, from, to));
-            return;
-        }
-        var contentStart = from + 1;
-        var contentEnd = to - 1;
-        var cursor = from;
-        var index = contentStart;
+    private void lexTemplateOpen(int offset) {
+        var inJsonString = nextState == STATE_JSON_STRING;
+        addToken(mapOpenType(buffer.charAt(offset + 1)), offset, offset + 2, nextState);
+        nextOffset = offset + 2;
+        nextState = packState(STATE_EXPRESSION, 1, 0, inJsonString);
+    }
 
-        while (index < contentEnd) {
-            if (!TemplateTextScanner.isTemplateStart(source, index)) {
-                index++;
-                continue;
+    private void lexExpressionToken(int limit) {
+        var offset = nextOffset;
+        var state = nextState;
+        var depth = getDepth(state);
+        var inJsonString = isInJsonString(state);
+        var ch = buffer.charAt(offset);
+        var next = offset + 1 < limit ? buffer.charAt(offset + 1) : '\0';
+
+        if (ch == '}' && next == '}') {
+            addToken(JjtemplateTokenTypes.CLOSE, offset, offset + 2, state);
+            nextOffset = offset + 2;
+            if (depth <= 1) {
+                nextState = inJsonString ? STATE_JSON_STRING : STATE_JSON;
+            } else {
+                var quotes = getQuotes(state) & (quoteBit(depth - 1) * 2 - 1);
+                nextState = packState(STATE_EXPRESSION_STRING, depth - 1, quotes, inJsonString);
             }
-            var templateEnd = TemplateTextScanner.findTemplateEnd(source, index, contentEnd);
-            if (templateEnd < 0) {
-                break;
+            return;
+        }
+        if (inJsonString && ch == '"') {
+            // The JSON string ends inside the block: hand the quote back to the JSON string lexer.
+            nextState = STATE_JSON_STRING;
+            return;
+        }
+        if (Character.isWhitespace(ch)) {
+            var end = offset + 1;
+            while (end < limit && Character.isWhitespace(buffer.charAt(end))) {
+                end++;
             }
-            if (cursor < index) {
-                out.add(new Lexeme(JjtemplateTokenTypes.STRING, cursor, index));
+            addToken(TokenType.WHITE_SPACE, offset, end, state);
+            nextOffset = end;
+            return;
+        }
+        if (ch == '\'' || ch == '"') {
+            lexStringLiteral(offset, offset + 1, ch, limit);
+            return;
+        }
+        if (ch == '\\' && inJsonString && next == '"') {
+            lexStringLiteral(offset, offset + 2, '"', limit);
+            return;
+        }
+        if (isIdentifierStart(ch)) {
+            var end = offset + 1;
+            while (end < limit && isIdentifierPart(buffer.charAt(end))) {
+                end++;
             }
-            appendTemplateExpressionTokens(source, index, templateEnd, out);
-            cursor = templateEnd;
-            index = templateEnd;
+            addToken(mapWord(offset, end), offset, end, state);
+            nextOffset = end;
+            return;
+        }
+        if (Character.isDigit(ch) || (ch == '-' && Character.isDigit(next))) {
+            var end = readNumberEnd(offset, limit);
+            addToken(JjtemplateTokenTypes.NUMBER, offset, end, state);
+            nextOffset = end;
+            return;
         }
+        var punctuationType = mapExpressionPunctuation(ch);
+        if (punctuationType != null) {
+            addToken(punctuationType, offset, offset + 1, state);
+            nextOffset = offset + 1;
+            return;
+        }
+        var width = ch == '\\' || TemplateTextScanner.isTemplateStart(buffer, offset) ? 2 : 1;
+        var end = Math.min(offset + width, limit);
+        addToken(TokenType.BAD_CHARACTER, offset, end, state);
+        nextOffset = end;
+    }
 
-        if (cursor < to) {
-            out.add(new Lexeme(JjtemplateTokenTypes.STRING, cursor, to));
+    private void lexExpressionStringPart(int limit) {
+        var offset = nextOffset;
+        var state = nextState;
+        var depth = getDepth(state);
+        if (depth < MAX_DEPTH && TemplateTextScanner.isTemplateStart(buffer, offset) && offset + 1 < limit) {
+            addToken(mapOpenType(buffer.charAt(offset + 1)), offset, offset + 2, state);
+            nextOffset = offset + 2;
+            nextState = packState(STATE_EXPRESSION, depth + 1, getQuotes(state), isInJsonString(state));
+            return;
         }
+        var quote = (getQuotes(state) & quoteBit(depth)) != 0 ? '"' : '\'';
+        lexStringLiteral(offset, offset, quote, limit);
     }
 
-    private static void appendTemplateExpressionTokens(String source, int from, int to, List<Lexeme> out) {
-        var templateSource = source.substring(from, to);
-        try {
-            var tokens = new TemplateLexer(templateSource).tokens();
-            for (var token : tokens) {
-                var tokenStart = from + token.start;
-                var tokenEnd = from + token.end;
-                if (token.type == TokenType.STRING) {
-                    appendStringToken(source, tokenStart, tokenEnd, out);
+    // Lexes a string literal body (raw JSON string content when the block sits in a JSON string) up to the
+    // closing quote, a nested template block or the end of the enclosing JSON string.
+    private void lexStringLiteral(int tokenStart, int contentStart, char quote, int limit) {
+        var state = nextState;
+        var depth = getDepth(state);
+        var inJsonString = isInJsonString(state);
+        var quotes = getQuotes(state);
+        var cursor = contentStart;
+        var closed = false;
+        var jsonStringEnded = false;
+        while (cursor < limit) {
+            var ch = buffer.charAt(cursor);
+            if (ch == '\\') {
+                if (!inJsonString) {
+                    cursor += 2;
+                    continue;
+                }
+                var next = cursor + 1 < limit ? buffer.charAt(cursor + 1) : '\0';
+                if (next == '\\') {
+                    // A decoded backslash escapes the next decoded character.
+                    cursor += 2;
+                    cursor += cursor < limit && buffer.charAt(cursor) == '\\' ? 2 : 1;
                     continue;
                 }
-                var type = token.type == TokenType.TEXT ? JjtemplateTokenTypes.STRING : mapType(token.type);
-                out.add(new Lexeme(type, tokenStart, tokenEnd));
+                cursor += 2;
+                if (next == '"' && quote == '"') {
+                    closed = true;
+                    break;
+                }
+                continue;
             }
-        } catch (Throwable ignored) {
-            var openType = switch (source.charAt(from + 1)) {
-                case '{' -> JjtemplateTokenTypes.OPEN_EXPR;
-                case '?' -> JjtemplateTokenTypes.OPEN_COND;
-                case '.' -> JjtemplateTokenTypes.OPEN_SPREAD;
-                default -> JjtemplateTokenTypes.OPEN_EXPR;
-            };
-            out.add(new Lexeme(openType, from, Math.min(from + 2, to)));
-            if (to - from > 4) {
-                out.add(new Lexeme(JjtemplateTokenTypes.STRING, from + 2, to - 2));
+            if (inJsonString && ch == '"') {
+                jsonStringEnded = true;
+                break;
             }
-            if (to - from >= 2) {
-                out.add(new Lexeme(JjtemplateTokenTypes.CLOSE, to - 2, to));
+            if (ch == quote) {
+                cursor++;
+                closed = true;
+                break;
+            }
+            if (depth < MAX_DEPTH && TemplateTextScanner.isTemplateStart(buffer, cursor) && cursor + 1 < limit) {
+                break;
             }
+            cursor++;
+        }
+        cursor = Math.min(cursor, limit);
+        if (cursor > tokenStart) {
+            addToken(JjtemplateTokenTypes.STRING, tokenStart, cursor, state);
+        }
+        nextOffset = cursor;
+        if (closed) {
+            nextState = packState(STATE_EXPRESSION, depth, quotes & ~quoteBit(depth), inJsonString);
+        } else if (jsonStringEnded) {
+            nextState = STATE_JSON_STRING;
+        } else {
+            var quoteBits = quote == '"' ? quotes | quoteBit(depth) : quotes & ~quoteBit(depth);
+            nextState = packState(STATE_EXPRESSION_STRING, depth, quoteBits, inJsonString);
         }
     }
 
-    private static List<Token> normalizeTokens(List<Token> sourceTokens, String source) {
-        if (source.isEmpty()) {
-            return Collections.emptyList();
-        }
-        var length = source.length();
-        var normalized = new ArrayList<Token>(sourceTokens.size());
-        var currentStart = 0;
-        for (var token : sourceTokens) {
-            var start = Math.max(token.start, 0);
-            var end = Math.min(token.end, length);
-            if (start > currentStart) {
-                normalized.add(new Token(TokenType.TEXT, source.substring(currentStart, start), currentStart, start));
-                currentStart = start;
-            }
-            if (start < currentStart) {
-                start = currentStart;
+    private int readNumberEnd(int from, int limit) {
+        var index = from;
+        if (buffer.charAt(index) == '-') {
+            index++;
+        }
+        while (index < limit && Character.isDigit(buffer.charAt(index))) {
+            index++;
+        }
+        if (index + 1 < limit && buffer.charAt(index) == '.' && Character.isDigit(buffer.charAt(index + 1))) {
+            index++;
+            while (index < limit && Character.isDigit(buffer.charAt(index))) {
+                index++;
             }
-            if (end <= start) {
-                continue;
+        }
+        if (index < limit && (buffer.charAt(index) == 'e' || buffer.charAt(index) == 'E')) {
+            var exponent = index + 1;
+            if (exponent < limit && (buffer.charAt(exponent) == '+' || buffer.charAt(exponent) == '-')) {
+                exponent++;
             }
-            normalized.add(new Token(token.type, source.substring(start, end), start, end));
-            currentStart = end;
-            if (currentStart >= length) {
-                break;
+            if (exponent < limit && Character.isDigit(buffer.charAt(exponent))) {
+                index = exponent;
+                while (index < limit && Character.isDigit(buffer.charAt(index))) {
+                    index++;
+                }
             }
         }
-        if (currentStart < length) {
-            normalized.add(new Token(TokenType.TEXT, source.substring(currentStart), currentStart, length));
+        return index;
+    }
+
+    private IElementType mapWord(int start, int end) {
+        if (regionEquals(start, end, "true") || regionEquals(start, end, "false")) {
+            return JjtemplateTokenTypes.BOOLEAN;
+        }
+        if (regionEquals(start, end, "null")) {
+            return JjtemplateTokenTypes.NULL;
         }
-        if (normalized.isEmpty()) {
-            return List.of(new Token(TokenType.TEXT, source, 0, source.length()));
+        for (var keyword : KEYWORDS) {
+            if (regionEquals(start, end, keyword)) {
+                return JjtemplateTokenTypes.KEYWORD;
+            }
         }
-        return normalized;
+        return JjtemplateTokenTypes.IDENT;
     }
 
-    private static List<Lexeme> fallbackTokens(String source) {
-        if (source.isEmpty()) {
-            return Collections.emptyList();
+    private boolean regionEquals(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
         }
-        var result = new ArrayList<Lexeme>();
-        appendPlainTextTokens(source, 0, source.length(), result);
-        if (result.isEmpty()) {
-            result.add(new Lexeme(JjtemplateTokenTypes.TEXT, 0, source.length()));
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
         }
-        return result;
+        return true;
     }
 
-    private static void appendPlainTextTokens(String source, int from, int to, List<Lexeme> out) {
-        var cursor = from;
-        while (cursor < to) {
-            if (cursor + 1 < to) {
-                var first = source.charAt(cursor);
-                var second = source.charAt(cursor + 1);
-                var templateType = switch (first) {
-                    case '{' -> switch (second) {
-                        case '{' -> JjtemplateTokenTypes.OPEN_EXPR;
-                        case '?' -> JjtemplateTokenTypes.OPEN_COND;
-                        case '.' -> JjtemplateTokenTypes.OPEN_SPREAD;
-                        default -> null;
-                    };
-                    case '}' -> second == '}' ? JjtemplateTokenTypes.CLOSE : null;
-                    default -> null;
-                };
-                if (templateType != null) {
-                    out.add(new Lexeme(templateType, cursor, cursor + 2));
-                    cursor += 2;
-                    continue;
-                }
-            }
+    private static boolean isIdentifierStart(char ch) {
+        return Character.isLetter(ch) || ch == '_';
+    }
 
-            var ch = source.charAt(cursor);
-            var punctType = mapPlainDelimiter(ch);
-            if (punctType != null) {
-                out.add(new Lexeme(punctType, cursor, cursor + 1));
-                cursor++;
-                continue;
-            }
+    private static boolean isIdentifierPart(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_';
+    }
 
-            var start = cursor;
-            while (cursor < to && mapPlainDelimiter(source.charAt(cursor)) == null) {
-                cursor++;
-            }
-            out.add(new Lexeme(JjtemplateTokenTypes.TEXT, start, cursor));
-        }
+    private static IElementType mapOpenType(char second) {
+        return switch (second) {
+            case '?' -> JjtemplateTokenTypes.OPEN_COND;
+            case '.' -> JjtemplateTokenTypes.OPEN_SPREAD;
+            default -> JjtemplateTokenTypes.OPEN_EXPR;
+        };
+    }
+
+    private static IElementType mapExpressionPunctuation(char ch) {
+        return switch (ch) {
+            case '|' -> JjtemplateTokenTypes.PIPE;
+            case '.' -> JjtemplateTokenTypes.DOT;
+            case ',' -> JjtemplateTokenTypes.COMMA;
+            case ':' -> JjtemplateTokenTypes.COLON;
+            case '?' -> JjtemplateTokenTypes.QUESTION;
+            case '(' -> JjtemplateTokenTypes.LPAREN;
+            case ')' -> JjtemplateTokenTypes.RPAREN;
+            default -> null;
+        };
     }
 
     private static IElementType mapPlainDelimiter(char ch) {
@@ -317,10 +461,24 @@ public final class JjtemplateSyntaxLexer extends LexerBase {
             case ']' -> JjtemplateTokenTypes.RBRACKET;
             case '(' -> JjtemplateTokenTypes.LPAREN;
             case ')' -> JjtemplateTokenTypes.RPAREN;
+            case ',' -> JjtemplateTokenTypes.JSON_COMMA;
+            case ':' -> JjtemplateTokenTypes.JSON_COLON;
             default -> null;
         };
     }
 
-    private record Lexeme(IElementType type, int start, int end) {
+    private void addToken(IElementType type, int start, int end, int state) {
+        if (chunkSize == tokenTypes.length) {
+            var capacity = chunkSize * 2;
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+            tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+            tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+            tokenStates = Arrays.copyOf(tokenStates, capacity);
+        }
+        tokenTypes[chunkSize] = type.getIndex();
+        tokenStarts[chunkSize] = start;
+        tokenEnds[chunkSize] = end;
+        tokenStates[chunkSize] = state;
+        chunkSize++;
     }
 }
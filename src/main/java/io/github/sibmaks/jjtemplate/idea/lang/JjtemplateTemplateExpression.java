@@ -0,0 +1,19 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.extapi.psi.ASTWrapperPsiElement;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.ContributedReferenceHost;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.impl.source.resolve.reference.ReferenceProvidersRegistry;
+import org.jetbrains.annotations.NotNull;
+
+public final class JjtemplateTemplateExpression extends ASTWrapperPsiElement implements ContributedReferenceHost {
+    public JjtemplateTemplateExpression(@NotNull ASTNode node) {
+        super(node);
+    }
+
+    @Override
+    public PsiReference @NotNull [] getReferences() {
+        return ReferenceProvidersRegistry.getReferencesFromProviders(this);
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateSymbolTable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Function;
+
+/**
+ * Indexes each document version once and shares the template span index, JSON structure, symbol table and
+ * analysis between editor features. Entries are stored on the document and invalidated by its modification stamp.
+ */
+@Service(Service.Level.PROJECT)
+public final class JjtemplateTokenCache {
+    private static final Key<Stamped<TemplateSpanIndex>> SPANS_KEY = Key.create("jjtemplate.templateSpans");
+    private static final Key<Stamped<JjtemplateSymbolTable>> SYMBOLS_KEY = Key.create("jjtemplate.symbolTable");
+    private static final Key<Stamped<JsonStructureIndex>> STRUCTURE_KEY = Key.create("jjtemplate.jsonStructure");
+    private static final Key<Stamped<JjtemplateAnalysis>> ANALYSIS_KEY = Key.create("jjtemplate.analysis");
+
+    public static @NotNull JjtemplateTokenCache getInstance(@NotNull Project project) {
+        return project.getService(JjtemplateTokenCache.class);
+    }
+
+    public @NotNull TemplateSpanIndex getTemplateSpans(@NotNull Document document) {
+        var cached = peek(document, SPANS_KEY);
+        return cached != null ? cached : indexTemplate(document).spans();
+    }
+
+    public @NotNull TemplateSpanIndex getTemplateSpans(@NotNull PsiFile file) {
+        var document = getCommittedDocument(file);
+        return document == null ? TemplateSpanIndex.build(file.getText()) : getTemplateSpans(document);
+    }
+
+    public @NotNull JsonStructureIndex getStructure(@NotNull Document document) {
+        var cached = peek(document, STRUCTURE_KEY);
+        return cached != null ? cached : indexTemplate(document).structure();
+    }
+
+    /**
+     * @return structure of the current document version if it is already indexed, without indexing it
+     */
+    public @Nullable JsonStructureIndex peekStructure(@NotNull Document document) {
+        return peek(document, STRUCTURE_KEY);
+    }
+
+    public @NotNull JsonStructureIndex getStructure(@NotNull PsiFile file) {
+        var document = getCommittedDocument(file);
+        return document == null ? JsonStructureIndex.build(file.getText()) : getStructure(document);
+    }
+
+    public @NotNull JjtemplateSymbolTable getSymbolTable(@NotNull Document document) {
+        return getCached(document, SYMBOLS_KEY, JjtemplateSymbolTable::build);
+    }
+
+    public @NotNull JjtemplateSymbolTable getSymbolTable(@NotNull PsiFile file) {
+        var document = getCommittedDocument(file);
+        return document == null ? JjtemplateSymbolTable.build(file.getText()) : getSymbolTable(document);
+    }
+
+    public @NotNull JjtemplateAnalysis getAnalysis(@NotNull Document document) {
+        return getCached(document, ANALYSIS_KEY, JjtemplateAnalyzer::analyze);
+    }
+
+    /**
+     * Analysis of a snapshot taken earlier at {@code stamp}; reused only while the document still has that stamp.
+     */
+    public @NotNull JjtemplateAnalysis getAnalysis(@NotNull Document document,
+                                                   long stamp,
+                                                   @NotNull CharSequence text) {
+        return getCached(document, stamp, text, ANALYSIS_KEY, JjtemplateAnalyzer::analyze);
+    }
+
+    private <T> @NotNull T getCached(@NotNull Document document,
+                                     @NotNull Key<Stamped<T>> key,
+                                     @NotNull Function<CharSequence, T> builder) {
+        var stamp = document.getModificationStamp();
+        return getCached(document, stamp, document.getImmutableCharSequence(), key, builder);
+    }
+
+    private <T> @NotNull T getCached(@NotNull Document document,
+                                     long stamp,
+                                     @NotNull CharSequence text,
+                                     @NotNull Key<Stamped<T>> key,
+                                     @NotNull Function<CharSequence, T> builder) {
+        var cached = document.getUserData(key);
+        if (cached != null && cached.modificationStamp() == stamp) {
+            return cached.value();
+        }
+        var value = builder.apply(text);
+        // a snapshot of an older version must not replace what was cached for the current one
+        if (stamp == document.getModificationStamp()) {
+            document.putUserData(key, new Stamped<>(stamp, value));
+        }
+        return value;
+    }
+
+    private <T> @Nullable T peek(@NotNull Document document, @NotNull Key<Stamped<T>> key) {
+        var cached = document.getUserData(key);
+        if (cached == null || cached.modificationStamp() != document.getModificationStamp()) {
+            return null;
+        }
+        return cached.value();
+    }
+
+    // The span index and the JSON structure come from the same lexer pass, so a new document version is lexed
+    // once for both of them.
+    private @NotNull TemplateIndexes indexTemplate(@NotNull Document document) {
+        var stamp = document.getModificationStamp();
+        var indexes = TemplateIndexes.build(document.getImmutableCharSequence());
+        document.putUserData(SPANS_KEY, new Stamped<>(stamp, indexes.spans()));
+        document.putUserData(STRUCTURE_KEY, new Stamped<>(stamp, indexes.structure()));
+        return indexes;
+    }
+
+    private static @Nullable Document getCommittedDocument(@NotNull PsiFile file) {
+        var documentManager = PsiDocumentManager.getInstance(file.getProject());
+        var document = documentManager.getDocument(file);
+        if (document == null || !documentManager.isCommitted(document)) {
+            return null;
+        }
+        return document;
+    }
+
+    private record Stamped<T>(long modificationStamp, @NotNull T value) {
+    }
+
+    private record TemplateIndexes(@NotNull TemplateSpanIndex spans, @NotNull JsonStructureIndex structure) {
+        static @NotNull TemplateIndexes build(@NotNull CharSequence text) {
+            var spans = new TemplateSpanIndex.Builder();
+            var structure = new JsonStructureIndex.Builder();
+            var lexer = new JjtemplateSyntaxLexer();
+            lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+            while (lexer.getTokenType() != null) {
+                var tokenType = lexer.getTokenType();
+                spans.accept(tokenType, lexer.getTokenStart(), lexer.getTokenEnd(), lexer.getState());
+                structure.accept(tokenType, lexer.getTokenStart(), lexer.getTokenEnd());
+                lexer.advance();
+            }
+            return new TemplateIndexes(spans.build(), structure.build());
+        }
+    }
+}
@@ -25,6 +25,9 @@ public final class JjtemplateTokenTypes {
     public static final IElementType NULL = new IElementType("NULL", JjtemplateLanguage.INSTANCE);
     public static final IElementType IDENT = new IElementType("IDENT", JjtemplateLanguage.INSTANCE);
     public static final IElementType KEYWORD = new IElementType("KEYWORD", JjtemplateLanguage.INSTANCE);
+    public static final IElementType JSON_STRING = new IElementType("JSON_STRING", JjtemplateLanguage.INSTANCE);
+    public static final IElementType JSON_COMMA = new IElementType("JSON_COMMA", JjtemplateLanguage.INSTANCE);
+    public static final IElementType JSON_COLON = new IElementType("JSON_COLON", JjtemplateLanguage.INSTANCE);
 
     private JjtemplateTokenTypes() {
     }
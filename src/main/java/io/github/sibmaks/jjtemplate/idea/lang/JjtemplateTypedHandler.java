@@ -6,7 +6,6 @@ import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.tree.IElementType;
 import org.jetbrains.annotations.NotNull;
 
 public final class JjtemplateTypedHandler extends TypedHandlerDelegate {
@@ -31,7 +30,7 @@ public final class JjtemplateTypedHandler extends TypedHandlerDelegate {
             return Result.CONTINUE;
         }
 
-        if (c == '\'' && !isInSubstitution(editor)) {
+        if (c == '\'' && !JjtemplateCaretContext.isInsideExpression(editor, editor.getCaretModel().getOffset())) {
             return Result.CONTINUE;
         }
 
@@ -86,38 +85,10 @@ public final class JjtemplateTypedHandler extends TypedHandlerDelegate {
         if (!file.getLanguage().isKindOf(JjtemplateLanguage.INSTANCE)) {
             return Result.CONTINUE;
         }
-        if (charTyped == '.' && isInSubstitution(editor)) {
+        if (charTyped == '.' && JjtemplateCaretContext.isInsideExpression(editor, editor.getCaretModel().getOffset())) {
             AutoPopupController.getInstance(project).scheduleAutoPopup(editor);
             return Result.STOP;
         }
         return Result.CONTINUE;
     }
-
-    private static boolean isInSubstitution(@NotNull Editor editor) {
-        var lexer = new JjtemplateSyntaxLexer();
-        var chars = editor.getDocument().getCharsSequence();
-        lexer.start(chars, 0, chars.length(), 0);
-
-        var offset = editor.getCaretModel().getOffset();
-        var depth = 0;
-        while (lexer.getTokenType() != null) {
-            var tokenType = lexer.getTokenType();
-            if (lexer.getTokenStart() >= offset) {
-                break;
-            }
-            if (isTemplateOpen(tokenType)) {
-                depth++;
-            } else if (tokenType == JjtemplateTokenTypes.CLOSE && depth > 0) {
-                depth--;
-            }
-            lexer.advance();
-        }
-        return depth > 0;
-    }
-
-    private static boolean isTemplateOpen(IElementType tokenType) {
-        return tokenType == JjtemplateTokenTypes.OPEN_EXPR
-                || tokenType == JjtemplateTokenTypes.OPEN_COND
-                || tokenType == JjtemplateTokenTypes.OPEN_SPREAD;
-    }
 }
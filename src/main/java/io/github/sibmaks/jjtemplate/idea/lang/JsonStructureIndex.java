@@ -0,0 +1,358 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * JSON structure of a template text: matched object/array bracket pairs and the key and value spans of their
+ * members, in primitive arrays sorted by offset. Built in one pass of {@link JjtemplateSyntaxLexer}, so brackets
+ * and quotes inside template blocks never count; queries are binary searches followed by short parent walks.
+ */
+public final class JsonStructureIndex {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final byte EXPECT_KEY = 0;
+    private static final byte IN_KEY = 1;
+    private static final byte EXPECT_VALUE = 2;
+    private static final byte IN_VALUE = 3;
+
+    private final int[] opens;
+    private final int[] closes;
+    private final int[] parents;
+    private final boolean[] objects;
+    private final int[] memberCounts;
+    private final int[] ownerMembers;
+    private final int containerCount;
+    private final int[] keyStarts;
+    private final int[] keyEnds;
+    private final int[] valueStarts;
+    private final int[] valueEnds;
+    private final int[] memberContainers;
+    private final int memberCount;
+
+    private JsonStructureIndex(Builder builder) {
+        this.opens = builder.opens;
+        this.closes = builder.closes;
+        this.parents = builder.parents;
+        this.objects = builder.objects;
+        this.memberCounts = builder.memberCounts;
+        this.ownerMembers = builder.ownerMembers;
+        this.containerCount = builder.containerCount;
+        this.keyStarts = builder.keyStarts;
+        this.keyEnds = builder.keyEnds;
+        this.valueStarts = builder.valueStarts;
+        this.valueEnds = builder.valueEnds;
+        this.memberContainers = builder.memberContainers;
+        this.memberCount = builder.memberCount;
+    }
+
+    public static @NotNull JsonStructureIndex build(@NotNull CharSequence text) {
+        var builder = new Builder();
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        while (lexer.getTokenType() != null) {
+            var tokenType = lexer.getTokenType();
+            builder.accept(tokenType, lexer.getTokenStart(), lexer.getTokenEnd());
+            lexer.advance();
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return containerCount;
+    }
+
+    public int getOpen(int container) {
+        return opens[container];
+    }
+
+    /**
+     * @return offset of the closing bracket, or {@code -1} if the container is never closed
+     */
+    public int getClose(int container) {
+        return closes[container];
+    }
+
+    public int getParent(int container) {
+        return parents[container];
+    }
+
+    public boolean isObject(int container) {
+        return objects[container];
+    }
+
+    /**
+     * @return number of properties of an object or elements of an array
+     */
+    public int getMemberCount(int container) {
+        return memberCounts[container];
+    }
+
+    /**
+     * @return index of the container whose opening bracket is at {@code offset}, or {@code -1}
+     */
+    public int findContainerAt(int offset) {
+        var container = Arrays.binarySearch(opens, 0, containerCount, offset);
+        return container < 0 ? -1 : container;
+    }
+
+    /**
+     * @return offset of the bracket paired with the one at {@code offset}, or {@code -1}
+     */
+    public int findMatchingBracket(int offset) {
+        var container = findContaining(offset);
+        if (container < 0) {
+            return -1;
+        }
+        if (opens[container] == offset) {
+            return closes[container];
+        }
+        return closes[container] == offset ? opens[container] : -1;
+    }
+
+    /**
+     * @return index of the innermost container whose brackets enclose {@code offset} (inclusive), or {@code -1}
+     */
+    public int findContaining(int offset) {
+        var container = lastAtOrBefore(opens, containerCount, offset);
+        while (container >= 0 && closes[container] >= 0 && closes[container] < offset) {
+            container = parents[container];
+        }
+        return container;
+    }
+
+    /**
+     * @return index of the innermost object enclosing {@code offset}, or {@code -1}
+     */
+    public int findEnclosingObject(int offset) {
+        var container = findContaining(offset);
+        while (container >= 0 && !objects[container]) {
+            container = parents[container];
+        }
+        return container;
+    }
+
+    /**
+     * @return index of the innermost member whose key or value spans {@code offset}, or {@code -1}
+     */
+    public int findMember(int offset) {
+        var member = lastAtOrBefore(valueStarts, keyStarts, memberCount, offset);
+        while (member >= 0 && getMemberEnd(member) <= offset) {
+            member = ownerMembers[memberContainers[member]];
+        }
+        return member;
+    }
+
+    /**
+     * @return index of the member whose value starts at {@code offset}, or {@code -1}
+     */
+    public int findMemberWithValueAt(int offset) {
+        var member = findMember(offset);
+        return member >= 0 && valueStarts[member] == offset ? member : -1;
+    }
+
+    /**
+     * @return index of the last member starting at or before {@code offset}, enclosing it or not, or {@code -1}
+     */
+    public int findLastMemberAtOrBefore(int offset) {
+        return lastAtOrBefore(valueStarts, keyStarts, memberCount, offset);
+    }
+
+    /**
+     * @return offset of the member's key, or of its value when it has no key
+     */
+    public int getMemberStart(int member) {
+        return keyStarts[member] >= 0 ? keyStarts[member] : valueStarts[member];
+    }
+
+    public int getMemberContainer(int member) {
+        return memberContainers[member];
+    }
+
+    /**
+     * @return start of the key string (its opening quote), or {@code -1} for array elements and spreads
+     */
+    public int getKeyStart(int member) {
+        return keyStarts[member];
+    }
+
+    public int getKeyEnd(int member) {
+        return keyEnds[member];
+    }
+
+    /**
+     * @return start of the value, or {@code -1} if the key has none yet
+     */
+    public int getValueStart(int member) {
+        return valueStarts[member];
+    }
+
+    public int getValueEnd(int member) {
+        return valueEnds[member];
+    }
+
+    private int getMemberEnd(int member) {
+        return valueStarts[member] >= 0 ? valueEnds[member] : keyEnds[member];
+    }
+
+    private static int lastAtOrBefore(int[] starts, int size, int offset) {
+        var low = 0;
+        var high = size - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    // members start at their key, or at their value when they have no key
+    private static int lastAtOrBefore(int[] valueStarts, int[] keyStarts, int size, int offset) {
+        var low = 0;
+        var high = size - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            var start = keyStarts[mid] >= 0 ? keyStarts[mid] : valueStarts[mid];
+            if (start <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Collects the structure from the tokens of one pass of {@link JjtemplateSyntaxLexer}, in document order.
+     */
+    static final class Builder {
+        private int[] opens = new int[INITIAL_CAPACITY];
+        private int[] closes = new int[INITIAL_CAPACITY];
+        private int[] parents = new int[INITIAL_CAPACITY];
+        private boolean[] objects = new boolean[INITIAL_CAPACITY];
+        private int[] memberCounts = new int[INITIAL_CAPACITY];
+        private int[] ownerMembers = new int[INITIAL_CAPACITY];
+        private int containerCount;
+        private int[] keyStarts = new int[INITIAL_CAPACITY];
+        private int[] keyEnds = new int[INITIAL_CAPACITY];
+        private int[] valueStarts = new int[INITIAL_CAPACITY];
+        private int[] valueEnds = new int[INITIAL_CAPACITY];
+        private int[] memberContainers = new int[INITIAL_CAPACITY];
+        private int memberCount;
+
+        // innermost open container, its member being read and what comes next in it
+        private int current = -1;
+        private int currentMember = -1;
+        private byte state = IN_VALUE;
+
+        void accept(IElementType tokenType, int start, int end) {
+            if (tokenType == TokenType.WHITE_SPACE) {
+                return;
+            }
+            if (tokenType == JjtemplateTokenTypes.JSON_COMMA) {
+                currentMember = -1;
+                state = current >= 0 && objects[current] ? EXPECT_KEY : EXPECT_VALUE;
+                return;
+            }
+            if (tokenType == JjtemplateTokenTypes.JSON_COLON) {
+                if (state == IN_KEY) {
+                    state = EXPECT_VALUE;
+                }
+                return;
+            }
+            if (tokenType == JjtemplateTokenTypes.RBRACE || tokenType == JjtemplateTokenTypes.RBRACKET) {
+                var object = tokenType == JjtemplateTokenTypes.RBRACE;
+                if (current < 0 || objects[current] != object) {
+                    return;
+                }
+                closes[current] = start;
+                var owner = ownerMembers[current];
+                current = parents[current];
+                currentMember = owner;
+                state = IN_VALUE;
+                extend(end);
+                return;
+            }
+
+            if (state == EXPECT_KEY && tokenType == JjtemplateTokenTypes.JSON_STRING) {
+                currentMember = addMember(start, -1);
+                state = IN_KEY;
+            } else if (state == EXPECT_KEY || state == EXPECT_VALUE) {
+                if (currentMember < 0) {
+                    currentMember = addMember(-1, start);
+                } else {
+                    valueStarts[currentMember] = start;
+                }
+                state = IN_VALUE;
+            }
+            if (tokenType == JjtemplateTokenTypes.LBRACE || tokenType == JjtemplateTokenTypes.LBRACKET) {
+                openContainer(tokenType == JjtemplateTokenTypes.LBRACE, start);
+                return;
+            }
+            extend(end);
+        }
+
+        JsonStructureIndex build() {
+            return new JsonStructureIndex(this);
+        }
+
+        private void extend(int end) {
+            if (currentMember < 0) {
+                return;
+            }
+            if (state == IN_KEY) {
+                keyEnds[currentMember] = end;
+            } else {
+                valueEnds[currentMember] = end;
+            }
+        }
+
+        private void openContainer(boolean object, int start) {
+            if (containerCount == opens.length) {
+                var capacity = containerCount * 2;
+                opens = Arrays.copyOf(opens, capacity);
+                closes = Arrays.copyOf(closes, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                objects = Arrays.copyOf(objects, capacity);
+                memberCounts = Arrays.copyOf(memberCounts, capacity);
+                ownerMembers = Arrays.copyOf(ownerMembers, capacity);
+            }
+            opens[containerCount] = start;
+            closes[containerCount] = -1;
+            parents[containerCount] = current;
+            objects[containerCount] = object;
+            memberCounts[containerCount] = 0;
+            ownerMembers[containerCount] = currentMember;
+            current = containerCount++;
+            currentMember = -1;
+            state = object ? EXPECT_KEY : EXPECT_VALUE;
+        }
+
+        private int addMember(int keyStart, int valueStart) {
+            if (current < 0) {
+                // top-level text outside the root value
+                return -1;
+            }
+            if (memberCount == keyStarts.length) {
+                var capacity = memberCount * 2;
+                keyStarts = Arrays.copyOf(keyStarts, capacity);
+                keyEnds = Arrays.copyOf(keyEnds, capacity);
+                valueStarts = Arrays.copyOf(valueStarts, capacity);
+                valueEnds = Arrays.copyOf(valueEnds, capacity);
+                memberContainers = Arrays.copyOf(memberContainers, capacity);
+            }
+            keyStarts[memberCount] = keyStart;
+            keyEnds[memberCount] = keyStart;
+            valueStarts[memberCount] = valueStart;
+            valueEnds[memberCount] = valueStart;
+            memberContainers[memberCount] = current;
+            memberCounts[current]++;
+            return memberCount++;
+        }
+    }
+}
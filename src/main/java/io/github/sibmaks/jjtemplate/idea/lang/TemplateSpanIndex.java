@@ -0,0 +1,166 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Sorted interval index of all template blocks of a text, including blocks nested in expression string literals.
+ * Built in one pass of {@link JjtemplateSyntaxLexer}; lookups are binary searches over the span starts.
+ */
+public final class TemplateSpanIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] parents;
+    private final int size;
+    private final int firstUnterminatedStart;
+
+    private TemplateSpanIndex(int[] starts, int[] ends, int[] parents, int size, int firstUnterminatedStart) {
+        this.starts = starts;
+        this.ends = ends;
+        this.parents = parents;
+        this.size = size;
+        this.firstUnterminatedStart = firstUnterminatedStart;
+    }
+
+    public static @NotNull TemplateSpanIndex build(@NotNull CharSequence text) {
+        var builder = new Builder();
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        while (lexer.getTokenType() != null) {
+            builder.accept(lexer.getTokenType(), lexer.getTokenStart(), lexer.getTokenEnd(), lexer.getState());
+            lexer.advance();
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int spanIndex) {
+        return starts[spanIndex];
+    }
+
+    /**
+     * @return end offset (exclusive) of the span, which is the end of its closer or, for a block cut short by the
+     * end of its JSON string, the closing quote; {@code -1} if the block runs to the end of the text
+     */
+    public int getEnd(int spanIndex) {
+        return ends[spanIndex];
+    }
+
+    public int getParent(int spanIndex) {
+        return parents[spanIndex];
+    }
+
+    /**
+     * @return end offset of the closed block opening exactly at {@code start}, or {@code -1}
+     */
+    public int findEnd(int start) {
+        var spanIndex = Arrays.binarySearch(starts, 0, size, start);
+        return spanIndex < 0 ? -1 : ends[spanIndex];
+    }
+
+    /**
+     * @return index of the innermost span containing {@code offset}, or {@code -1}
+     */
+    public int findContaining(int offset) {
+        var spanIndex = lastStartingAtOrBefore(offset);
+        while (spanIndex >= 0) {
+            var end = ends[spanIndex];
+            if (end < 0 || offset < end) {
+                return spanIndex;
+            }
+            spanIndex = parents[spanIndex];
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the first span starting at or after {@code offset}, or {@code -1}
+     */
+    public int findNext(int offset) {
+        var spanIndex = lastStartingAtOrBefore(offset - 1) + 1;
+        return spanIndex < size ? spanIndex : -1;
+    }
+
+    public boolean isInsideTemplate(int offset) {
+        if (firstUnterminatedStart >= 0 && offset >= firstUnterminatedStart) {
+            return true;
+        }
+        return findContaining(offset) >= 0;
+    }
+
+    private int lastStartingAtOrBefore(int offset) {
+        var low = 0;
+        var high = size - 1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Collects the spans from the tokens of one pass of {@link JjtemplateSyntaxLexer}, in document order, each
+     * with the lexer state at its start.
+     */
+    static final class Builder {
+        private int[] starts = new int[INITIAL_CAPACITY];
+        private int[] ends = new int[INITIAL_CAPACITY];
+        private int[] parents = new int[INITIAL_CAPACITY];
+        private int[] stack = new int[INITIAL_CAPACITY];
+        private int size;
+        private int stackSize;
+
+        void accept(IElementType tokenType, int start, int end, int state) {
+            if (stackSize > 0 && !isInsideExpression(state)) {
+                // The JSON string ended inside unclosed blocks: they end where the lexer gave them up.
+                while (stackSize > 0) {
+                    ends[stack[--stackSize]] = start;
+                }
+            }
+            if (isTemplateOpen(tokenType)) {
+                if (size == starts.length) {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                    parents = Arrays.copyOf(parents, size * 2);
+                }
+                if (stackSize == stack.length) {
+                    stack = Arrays.copyOf(stack, stackSize * 2);
+                }
+                starts[size] = start;
+                ends[size] = -1;
+                parents[size] = stackSize > 0 ? stack[stackSize - 1] : -1;
+                stack[stackSize++] = size;
+                size++;
+            } else if (tokenType == JjtemplateTokenTypes.CLOSE && stackSize > 0) {
+                ends[stack[--stackSize]] = end;
+            }
+        }
+
+        TemplateSpanIndex build() {
+            var firstUnterminatedStart = stackSize > 0 ? starts[stack[0]] : -1;
+            return new TemplateSpanIndex(starts, ends, parents, size, firstUnterminatedStart);
+        }
+    }
+
+    private static boolean isInsideExpression(int state) {
+        var mode = JjtemplateSyntaxLexer.getMode(state);
+        return mode == JjtemplateSyntaxLexer.STATE_EXPRESSION || mode == JjtemplateSyntaxLexer.STATE_EXPRESSION_STRING;
+    }
+
+    private static boolean isTemplateOpen(IElementType tokenType) {
+        return tokenType == JjtemplateTokenTypes.OPEN_EXPR
+                || tokenType == JjtemplateTokenTypes.OPEN_COND
+                || tokenType == JjtemplateTokenTypes.OPEN_SPREAD;
+    }
+}
@@ -1,8 +1,5 @@
 package io.github.sibmaks.jjtemplate.idea.lang;
 
-import io.github.sibmaks.jjtemplate.lexer.TemplateLexer;
-import io.github.sibmaks.jjtemplate.lexer.api.TokenType;
-
 final class TemplateTextScanner {
     private TemplateTextScanner() {
     }
@@ -15,50 +12,85 @@ final class TemplateTextScanner {
         return next == '{' || next == '?' || next == '.';
     }
 
-    static int findTemplateEnd(CharSequence source, int start, int endExclusive) {
-        if (!isTemplateStart(source, start)) {
+    // Finds the end of the block starting at start without copying the text. With inJsonString the block is
+    // raw JSON string content, so an unescaped '"' ends the scan and "\\" is one decoded backslash.
+    static int scanTemplateEnd(CharSequence source, int start, int endExclusive, boolean inJsonString) {
+        var limit = Math.min(Math.max(endExclusive, 0), source.length());
+        if (start + 1 >= limit || !isTemplateStart(source, start)) {
             return -1;
         }
-        var limit = Math.min(Math.max(endExclusive, 0), source.length());
-        var candidate = source.subSequence(start, limit).toString();
-        try {
-            var depth = 0;
-            var tokens = new TemplateLexer(candidate).tokens();
-            for (var token : tokens) {
-                if (token.type == TokenType.OPEN_EXPR
-                        || token.type == TokenType.OPEN_COND
-                        || token.type == TokenType.OPEN_SPREAD) {
-                    depth++;
-                    continue;
+        return scanExpressionEnd(source, start + 2, limit, inJsonString);
+    }
+
+    private static int scanExpressionEnd(CharSequence source, int from, int limit, boolean inJsonString) {
+        var index = from;
+        while (index < limit) {
+            var ch = source.charAt(index);
+            if (ch == '}' && index + 1 < limit && source.charAt(index + 1) == '}') {
+                return index + 2;
+            }
+            if (ch == '\'') {
+                index = scanStringLiteralEnd(source, index + 1, limit, '\'', inJsonString);
+            } else if (ch == '"') {
+                if (inJsonString) {
+                    return -1;
                 }
-                if (token.type == TokenType.CLOSE) {
-                    depth--;
-                    if (depth == 0) {
-                        return start + token.end;
-                    }
+                index = scanStringLiteralEnd(source, index + 1, limit, '"', false);
+            } else if (ch == '\\' && inJsonString) {
+                if (index + 1 < limit && source.charAt(index + 1) == '"') {
+                    index = scanStringLiteralEnd(source, index + 2, limit, '"', true);
+                } else {
+                    index += 2;
                 }
+            } else {
+                index++;
+            }
+            if (index < 0) {
+                return -1;
             }
-            return -1;
-        } catch (Throwable ignored) {
-            return findTemplateEndFallback(source, start, limit);
         }
+        return -1;
     }
 
-    private static int findTemplateEndFallback(CharSequence source, int start, int limit) {
-        var depth = 0;
-        for (int i = start; i + 1 < limit; i++) {
-            if (isTemplateStart(source, i)) {
-                depth++;
-                i++;
+    private static int scanStringLiteralEnd(CharSequence source, int from, int limit, char quote, boolean inJsonString) {
+        var index = from;
+        while (index < limit) {
+            var ch = source.charAt(index);
+            if (ch == '\\') {
+                if (!inJsonString) {
+                    index += 2;
+                    continue;
+                }
+                if (index + 1 >= limit) {
+                    return -1;
+                }
+                var next = source.charAt(index + 1);
+                if (next == '\\') {
+                    // A decoded backslash escapes the next decoded character.
+                    index += 2;
+                    index += index < limit && source.charAt(index) == '\\' ? 2 : 1;
+                    continue;
+                }
+                if (next == '"' && quote == '"') {
+                    return index + 2;
+                }
+                index += 2;
                 continue;
             }
-            if (source.charAt(i) == '}' && source.charAt(i + 1) == '}') {
-                depth--;
-                i++;
-                if (depth == 0) {
-                    return i + 1;
+            if (inJsonString && ch == '"') {
+                return -1;
+            }
+            if (ch == quote) {
+                return index + 1;
+            }
+            if (isTemplateStart(source, index)) {
+                index = scanExpressionEnd(source, index + 2, limit, inJsonString);
+                if (index < 0) {
+                    return -1;
                 }
+                continue;
             }
+            index++;
         }
         return -1;
     }
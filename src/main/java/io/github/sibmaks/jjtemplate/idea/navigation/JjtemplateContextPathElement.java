@@ -0,0 +1,97 @@
+package io.github.sibmaks.jjtemplate.idea.navigation;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.impl.FakePsiElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Search target for a root-context path such as {@code .order.customer.id}. The path is not declared in any
+ * template, so the element only carries the path and, when picked from an editor, the file it was picked in.
+ */
+public final class JjtemplateContextPathElement extends FakePsiElement {
+    private final Project project;
+    private final PsiFile file;
+    private final String path;
+
+    public JjtemplateContextPathElement(@NotNull Project project, @Nullable PsiFile file, @NotNull String path) {
+        this.project = project;
+        this.file = file;
+        this.path = path;
+    }
+
+    public @NotNull String getPath() {
+        return path;
+    }
+
+    @Override
+    public PsiElement getParent() {
+        return file;
+    }
+
+    @Override
+    public PsiFile getContainingFile() {
+        return file;
+    }
+
+    @Override
+    public @NotNull Project getProject() {
+        return project;
+    }
+
+    @Override
+    public PsiManager getManager() {
+        return PsiManager.getInstance(project);
+    }
+
+    @Override
+    public boolean isValid() {
+        return !project.isDisposed();
+    }
+
+    @Override
+    public String getName() {
+        return "." + path;
+    }
+
+    @Override
+    public String getPresentableText() {
+        return getName();
+    }
+
+    @Override
+    public String getLocationString() {
+        return "context path";
+    }
+
+    @Override
+    public boolean canNavigate() {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof JjtemplateContextPathElement that)) {
+            return false;
+        }
+        return project.equals(that.project) && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(project, path);
+    }
+
+    @Override
+    public String toString() {
+        return "JJTemplate context path '" + getName() + "'";
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.sibmaks.jjtemplate.idea.navigation;
+
+import com.intellij.find.findUsages.FindUsagesHandler;
+import com.intellij.find.findUsages.FindUsagesHandlerFactory;
+import com.intellij.find.findUsages.FindUsagesOptions;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.usageView.UsageInfo;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public final class JjtemplateContextPathFindUsagesHandlerFactory extends FindUsagesHandlerFactory {
+    @Override
+    public boolean canFindUsages(@NotNull PsiElement element) {
+        return element instanceof JjtemplateContextPathElement;
+    }
+
+    @Override
+    public @Nullable FindUsagesHandler createFindUsagesHandler(@NotNull PsiElement element, boolean forHighlightUsages) {
+        if (!(element instanceof JjtemplateContextPathElement contextPath)) {
+            return null;
+        }
+        return new FindUsagesHandler(contextPath) {
+            @Override
+            public boolean processElementUsages(@NotNull PsiElement element,
+                                                @NotNull Processor<? super UsageInfo> processor,
+                                                @NotNull FindUsagesOptions options) {
+                var project = contextPath.getProject();
+                var scope = options.searchScope instanceof GlobalSearchScope globalScope
+                        ? globalScope
+                        : GlobalSearchScope.projectScope(project);
+                return ReadAction.compute(() -> JjtemplateContextPathSearch.processUsages(
+                        project,
+                        contextPath.getPath(),
+                        scope,
+                        processor
+                ));
+            }
+        };
+    }
+}
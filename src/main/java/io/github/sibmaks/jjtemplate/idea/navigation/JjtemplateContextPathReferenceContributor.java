@@ -0,0 +1,91 @@
+package io.github.sibmaks.jjtemplate.idea.navigation;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.patterns.PlatformPatterns;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.PsiReferenceBase;
+import com.intellij.psi.PsiReferenceContributor;
+import com.intellij.psi.PsiReferenceProvider;
+import com.intellij.psi.PsiReferenceRegistrar;
+import com.intellij.util.ProcessingContext;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateContextPath;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateTemplateExpression;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gives every segment of a root-context path a soft reference to the path it ends, so Find Usages works from
+ * the caret inside a template expression.
+ */
+public final class JjtemplateContextPathReferenceContributor extends PsiReferenceContributor {
+    @Override
+    public void registerReferenceProviders(@NotNull PsiReferenceRegistrar registrar) {
+        registrar.registerReferenceProvider(
+                PlatformPatterns.psiElement(JjtemplateTemplateExpression.class),
+                new PsiReferenceProvider() {
+                    @Override
+                    public PsiReference @NotNull [] getReferencesByElement(@NotNull PsiElement element,
+                                                                           @NotNull ProcessingContext context) {
+                        return createReferences(element);
+                    }
+                }
+        );
+    }
+
+    private static PsiReference @NotNull [] createReferences(@NotNull PsiElement element) {
+        var file = element.getContainingFile();
+        if (file == null) {
+            return PsiReference.EMPTY_ARRAY;
+        }
+        var range = element.getTextRange();
+        var contextPaths = JjtemplateContextPathSearch.getContextPaths(file);
+        var index = firstStartingAtOrAfter(contextPaths, range.getStartOffset());
+        var result = new ArrayList<PsiReference>();
+        for (; index < contextPaths.size(); index++) {
+            var contextPath = contextPaths.get(index);
+            if (contextPath.start() >= range.getEndOffset()) {
+                break;
+            }
+            if (contextPath.end() > range.getEndOffset()) {
+                continue;
+            }
+            var referenceRange = TextRange.create(contextPath.lastSegmentStart(), contextPath.end())
+                    .shiftLeft(range.getStartOffset());
+            result.add(new ContextPathReference(element, referenceRange, contextPath.path()));
+        }
+        return result.toArray(PsiReference.EMPTY_ARRAY);
+    }
+
+    private static int firstStartingAtOrAfter(List<JjtemplateContextPath> contextPaths, int offset) {
+        var low = 0;
+        var high = contextPaths.size();
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (contextPaths.get(mid).start() < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class ContextPathReference extends PsiReferenceBase<PsiElement> {
+        private final String path;
+
+        private ContextPathReference(@NotNull PsiElement element, @NotNull TextRange range, @NotNull String path) {
+            super(element, range, true);
+            this.path = path;
+        }
+
+        @Override
+        public @Nullable PsiElement resolve() {
+            var element = getElement();
+            return new JjtemplateContextPathElement(element.getProject(), element.getContainingFile(), path);
+        }
+    }
+}
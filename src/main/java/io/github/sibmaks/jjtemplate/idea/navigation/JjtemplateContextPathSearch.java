@@ -0,0 +1,57 @@
+package io.github.sibmaks.jjtemplate.idea.navigation;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.usageView.UsageInfo;
+import com.intellij.util.Processor;
+import com.intellij.util.indexing.FileBasedIndex;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateContextPath;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateContextPathIndex;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateContextPathScanner;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+public final class JjtemplateContextPathSearch {
+    private JjtemplateContextPathSearch() {
+    }
+
+    public static @NotNull List<JjtemplateContextPath> getContextPaths(@NotNull PsiFile file) {
+        return CachedValuesManager.getCachedValue(file, () -> CachedValueProvider.Result.create(
+                JjtemplateContextPathScanner.scan(file.getViewProvider().getContents()),
+                file
+        ));
+    }
+
+    /**
+     * Reports every place that reads {@code path} (or a path below it) in the scope, straight from the index.
+     */
+    public static boolean processUsages(@NotNull Project project,
+                                        @NotNull String path,
+                                        @NotNull GlobalSearchScope scope,
+                                        @NotNull Processor<? super UsageInfo> processor) {
+        var psiManager = PsiManager.getInstance(project);
+        return FileBasedIndex.getInstance().processValues(
+                JjtemplateContextPathIndex.NAME,
+                JjtemplateContextPath.normalize(path),
+                null,
+                (file, contextPaths) -> {
+                    var psiFile = psiManager.findFile(file);
+                    if (psiFile == null) {
+                        return true;
+                    }
+                    for (var contextPath : contextPaths) {
+                        if (!processor.process(new UsageInfo(psiFile, contextPath.start(), contextPath.end()))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                },
+                scope
+        );
+    }
+}
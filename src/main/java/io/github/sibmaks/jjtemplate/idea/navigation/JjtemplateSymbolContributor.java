@@ -0,0 +1,47 @@
+package io.github.sibmaks.jjtemplate.idea.navigation;
+
+import com.intellij.navigation.ChooseByNameContributorEx;
+import com.intellij.navigation.NavigationItem;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.Processor;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FindSymbolParameters;
+import com.intellij.util.indexing.IdFilter;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateDefinitionIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Go to Symbol over template definitions and named range/switch bindings, served from
+ * {@link JjtemplateDefinitionIndex} without loading any file.
+ */
+public final class JjtemplateSymbolContributor implements ChooseByNameContributorEx {
+    @Override
+    public void processNames(@NotNull Processor<? super String> processor,
+                             @NotNull GlobalSearchScope scope,
+                             @Nullable IdFilter filter) {
+        FileBasedIndex.getInstance().processAllKeys(JjtemplateDefinitionIndex.NAME, processor, scope, filter);
+    }
+
+    @Override
+    public void processElementsWithName(@NotNull String name,
+                                        @NotNull Processor<? super NavigationItem> processor,
+                                        @NotNull FindSymbolParameters parameters) {
+        var project = parameters.getProject();
+        FileBasedIndex.getInstance().processValues(
+                JjtemplateDefinitionIndex.NAME,
+                name,
+                null,
+                (file, definitions) -> {
+                    for (var definition : definitions) {
+                        if (!processor.process(new JjtemplateSymbolNavigationItem(project, file, definition))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                },
+                parameters.getSearchScope(),
+                parameters.getIdFilter()
+        );
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.sibmaks.jjtemplate.idea.navigation;
+
+import com.intellij.navigation.ItemPresentation;
+import com.intellij.navigation.NavigationItem;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import io.github.sibmaks.jjtemplate.idea.index.JjtemplateDefinition;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateFileType;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+
+final class JjtemplateSymbolNavigationItem implements NavigationItem {
+    private final Project project;
+    private final VirtualFile file;
+    private final JjtemplateDefinition definition;
+
+    JjtemplateSymbolNavigationItem(@NotNull Project project,
+                                   @NotNull VirtualFile file,
+                                   @NotNull JjtemplateDefinition definition) {
+        this.project = project;
+        this.file = file;
+        this.definition = definition;
+    }
+
+    @Override
+    public String getName() {
+        return definition.name();
+    }
+
+    @Override
+    public ItemPresentation getPresentation() {
+        return new ItemPresentation() {
+            @Override
+            public String getPresentableText() {
+                return definition.name();
+            }
+
+            @Override
+            public String getLocationString() {
+                return file.getName() + " (" + definition.kind().getPresentableName() + ")";
+            }
+
+            @Override
+            public Icon getIcon(boolean unused) {
+                return JjtemplateFileType.INSTANCE.getIcon();
+            }
+        };
+    }
+
+    @Override
+    public void navigate(boolean requestFocus) {
+        new OpenFileDescriptor(project, file, definition.offset()).navigate(requestFocus);
+    }
+
+    @Override
+    public boolean canNavigate() {
+        return file.isValid();
+    }
+
+    @Override
+    public boolean canNavigateToSource() {
+        return canNavigate();
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.sibmaks.jjtemplate.idea.startup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import io.github.sibmaks.jjtemplate.idea.docs.BuiltInFunctionIndex;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateFileType;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateJson;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateTokenCache;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads the built-in function catalog, warms the shared Jackson mapper and analyzes the templates already open in
+ * the project on a low-priority pooled thread, so the first keystroke after startup does not pay for it.
+ */
+@Service(Service.Level.PROJECT)
+public final class JjtemplateWarmup {
+    private static final Logger LOG = Logger.getInstance(JjtemplateWarmup.class);
+    private static final String SAMPLE_JSON = "{\"key\":[1,2.5,\"value\",true,null,{}]}";
+
+    private final Project project;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+
+    public JjtemplateWarmup(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static @NotNull JjtemplateWarmup getInstance(@NotNull Project project) {
+        return project.getService(JjtemplateWarmup.class);
+    }
+
+    public @NotNull State getState() {
+        return state.get();
+    }
+
+    public boolean isReady() {
+        return state.get() == State.READY;
+    }
+
+    void start() {
+        if (state.compareAndSet(State.PENDING, State.RUNNING)) {
+            AppExecutorUtil.getAppExecutorService().execute(this::warmUp);
+        }
+    }
+
+    private void warmUp() {
+        var thread = Thread.currentThread();
+        var priority = thread.getPriority();
+        thread.setPriority(Thread.MIN_PRIORITY);
+        try {
+            BuiltInFunctionIndex.list();
+            warmUpMapper();
+            warmUpOpenTemplates();
+        } catch (RuntimeException e) {
+            LOG.warn("JJTemplate warm-up failed", e);
+        } finally {
+            thread.setPriority(priority);
+            state.set(State.READY);
+        }
+    }
+
+    private static void warmUpMapper() {
+        try {
+            var node = JjtemplateJson.MAPPER.readTree(SAMPLE_JSON);
+            JjtemplateJson.MAPPER.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            LOG.debug("JJTemplate mapper warm-up failed", e);
+        }
+    }
+
+    private void warmUpOpenTemplates() {
+        if (project.isDisposed()) {
+            return;
+        }
+        var tokenCache = JjtemplateTokenCache.getInstance(project);
+        var documentManager = FileDocumentManager.getInstance();
+        for (var file : FileEditorManager.getInstance(project).getOpenFiles()) {
+            if (project.isDisposed()) {
+                return;
+            }
+            if (file.getFileType() != JjtemplateFileType.INSTANCE) {
+                continue;
+            }
+            var document = documentManager.getCachedDocument(file);
+            if (document == null) {
+                continue;
+            }
+            tokenCache.getAnalysis(document);
+            tokenCache.getTemplateSpans(document);
+            tokenCache.getStructure(document);
+            tokenCache.getSymbolTable(document);
+        }
+    }
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        READY
+    }
+}
@@ -0,0 +1,17 @@
+package io.github.sibmaks.jjtemplate.idea.startup;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.ProjectActivity;
+import kotlin.Unit;
+import kotlin.coroutines.Continuation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public final class JjtemplateWarmupActivity implements ProjectActivity {
+
+    @Override
+    public @Nullable Object execute(@NotNull Project project, @NotNull Continuation<? super Unit> continuation) {
+        JjtemplateWarmup.getInstance(project).start();
+        return Unit.INSTANCE;
+    }
+}
@@ -0,0 +1,214 @@
+package io.github.sibmaks.jjtemplate.idea.toolwindow;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intellij.json.JsonFileType;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.testFramework.LightVirtualFile;
+import io.github.sibmaks.jjtemplate.compiler.api.TemplateCompiler;
+import io.github.sibmaks.jjtemplate.compiler.api.TemplateScript;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateJson;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Parses the context, compiles the template, renders it and pretty-prints the result on a background thread, with
+ * a progress stage per step. Compiling is skipped when {@link JjtemplateCompiledTemplateCache} holds the template
+ * for the same document version. Each step runs on a daemon thread owned by the task, so cancelling or running out
+ * of time releases the task at once even while the engine is busy; the thread is then interrupted and shut down,
+ * and the user is told if the engine ignores that and keeps running. The result is opened on the EDT.
+ */
+final class JjtemplateCompileTask extends Task.Backgroundable {
+    private static final Logger LOG = Logger.getInstance(JjtemplateCompileTask.class);
+    private static final ObjectMapper MAPPER = JjtemplateJson.MAPPER;
+    private static final TemplateCompiler COMPILER = TemplateCompiler.getInstance();
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long STOP_GRACE_MILLIS = 500;
+
+    private final Request request;
+    private final Callback callback;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "JJTemplate preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long deadline;
+    private volatile String unstoppableStage;
+    private volatile boolean contextStage;
+    private volatile String output;
+    private volatile String prettyContext;
+
+    /**
+     * Everything the task needs, captured on the EDT: texts are immutable snapshots of the documents.
+     */
+    record Request(@NotNull String fileUrl,
+                   @NotNull String outputName,
+                   @NotNull CharSequence templateText,
+                   long templateStamp,
+                   @NotNull CharSequence contextText,
+                   int indent,
+                   int timeoutSeconds) {
+    }
+
+    interface Callback {
+        /**
+         * Called on the EDT with the context JSON reformatted, if it could be parsed.
+         */
+        void onContextFormatted(@NotNull String prettyContext);
+
+        /**
+         * Called on the EDT when the task ends, whatever the outcome.
+         */
+        void onFinished();
+    }
+
+    JjtemplateCompileTask(@NotNull Project project, @NotNull Request request, @NotNull Callback callback) {
+        super(project, "Compiling JJTemplate", true);
+        this.request = request;
+        this.callback = callback;
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        try {
+            runStages(indicator);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void runStages(ProgressIndicator indicator) {
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(request.timeoutSeconds());
+        indicator.setIndeterminate(false);
+
+        contextStage = true;
+        var context = runStage(indicator, "Parsing context JSON", 0.0,
+                () -> MAPPER.readValue(request.contextText().toString(), MAP_TYPE));
+        var writer = JjtemplateSideMenuToolWindowFactory.createPrettyWriter(request.indent());
+        prettyContext = runStage(indicator, "Formatting context JSON", 0.1, () -> writer.writeValueAsString(context));
+        contextStage = false;
+
+        var cache = JjtemplateCompiledTemplateCache.getInstance(getProject());
+        var renderer = cache.get(request.fileUrl(), request.templateStamp());
+        if (renderer == null) {
+            var script = runStage(indicator, "Parsing template", 0.2,
+                    () -> MAPPER.readValue(request.templateText().toString(), TemplateScript.class));
+            var compiled = runStage(indicator, "Compiling template", 0.4, () -> COMPILER.compile(script));
+            renderer = compiled::render;
+            cache.put(request.fileUrl(), request.templateStamp(), renderer);
+        }
+        var template = renderer;
+        var rendered = runStage(indicator, "Rendering", 0.6, () -> template.render(context));
+        output = runStage(indicator, "Writing result", 0.9, () -> writer.writeValueAsString(rendered));
+        indicator.setFraction(1.0);
+    }
+
+    @Override
+    public void onSuccess() {
+        var project = getProject();
+        var outputFile = new LightVirtualFile(request.outputName(), JsonFileType.INSTANCE, output);
+        outputFile.setWritable(false);
+        FileEditorManager.getInstance(project).openFile(outputFile, true, true);
+    }
+
+    @Override
+    public void onCancel() {
+        if (unstoppableStage != null) {
+            JjtemplateSideMenuToolWindowFactory.showError(getProject(), getUnstoppableMessage());
+        }
+    }
+
+    @Override
+    public void onThrowable(@NotNull Throwable error) {
+        var message = JjtemplateSideMenuToolWindowFactory.getRootMessage(error);
+        if (unstoppableStage != null) {
+            message += "\n\n" + getUnstoppableMessage();
+        }
+        if (contextStage) {
+            JjtemplateSideMenuToolWindowFactory.showError(getProject(), "Invalid context JSON:\n" + message);
+            return;
+        }
+        if (!(error.getCause() instanceof TimeoutException)) {
+            LOG.error("JJTemplate compilation failed", error);
+        }
+        JjtemplateSideMenuToolWindowFactory.showError(getProject(), "Compilation failed:\n" + message);
+    }
+
+    @Override
+    public void onFinished() {
+        if (prettyContext != null) {
+            callback.onContextFormatted(prettyContext);
+        }
+        callback.onFinished();
+    }
+
+    private <T> T runStage(ProgressIndicator indicator, String text, double fraction, Callable<T> stage) {
+        indicator.checkCanceled();
+        indicator.setText(text);
+        indicator.setFraction(fraction);
+        var future = executor.submit(stage);
+        try {
+            while (true) {
+                indicator.checkCanceled();
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    var timeout = "Timed out after " + request.timeoutSeconds() + " s: " + text;
+                    throw new StageException(new TimeoutException(timeout));
+                }
+                try {
+                    return future.get(Math.min(remaining, POLL_NANOS), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException ignored) {
+                    // still running: check for cancellation and the deadline again
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StageException(e);
+        } catch (ExecutionException e) {
+            throw new StageException(e.getCause());
+        } finally {
+            if (!future.isDone()) {
+                stopStage(text);
+            }
+        }
+    }
+
+    // Interrupts the stage and gives it a moment to finish; the engine may not check for interruption at all.
+    private void stopStage(String text) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                unstoppableStage = text;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unstoppableStage = text;
+        }
+    }
+
+    private String getUnstoppableMessage() {
+        return unstoppableStage + " could not be stopped and is still running in the background.";
+    }
+
+    /**
+     * Carries the failure of a stage out of {@link #run}; the platform hands it to {@link #onThrowable}.
+     */
+    private static final class StageException extends RuntimeException {
+        private StageException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.sibmaks.jjtemplate.idea.toolwindow;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled templates of the tool window preview, one per file, valid for the document modification stamp they were
+ * compiled from. Rendering the same template against new context data reuses the compiled form; the least recently
+ * used files are evicted once more than {@link #MAX_ENTRIES} are cached.
+ */
+@Service(Service.Level.PROJECT)
+public final class JjtemplateCompiledTemplateCache {
+    static final int MAX_ENTRIES = 16;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public static @NotNull JjtemplateCompiledTemplateCache getInstance(@NotNull Project project) {
+        return project.getService(JjtemplateCompiledTemplateCache.class);
+    }
+
+    /**
+     * @return template compiled from the file at {@code modificationStamp}, or {@code null} if it has to be compiled
+     */
+    public synchronized @Nullable Renderer get(@NotNull String fileUrl, long modificationStamp) {
+        var entry = entries.get(fileUrl);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.modificationStamp() != modificationStamp) {
+            entries.remove(fileUrl);
+            return null;
+        }
+        return entry.renderer();
+    }
+
+    public synchronized void put(@NotNull String fileUrl, long modificationStamp, @NotNull Renderer renderer) {
+        entries.put(fileUrl, new Entry(modificationStamp, renderer));
+    }
+
+    /**
+     * A compiled template, ready to render any number of contexts.
+     */
+    @FunctionalInterface
+    public interface Renderer {
+        Object render(Map<String, Object> context) throws Exception;
+    }
+
+    private record Entry(long modificationStamp, Renderer renderer) {
+    }
+}
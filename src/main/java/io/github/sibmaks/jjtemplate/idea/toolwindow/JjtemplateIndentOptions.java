@@ -2,6 +2,7 @@ package io.github.sibmaks.jjtemplate.idea.toolwindow;
 
 import com.intellij.application.options.CodeStyle;
 import com.intellij.openapi.project.Project;
+import com.intellij.psi.codeStyle.CodeStyleSettings;
 import com.intellij.psi.codeStyle.CodeStyleSettingsManager;
 import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateFileType;
 
@@ -12,13 +13,28 @@ public final class JjtemplateIndentOptions {
     }
 
     public static int getIndent(Project project) {
-        var options = CodeStyle.getSettings(project).getIndentOptions(JjtemplateFileType.INSTANCE);
+        return getIndent(CodeStyle.getSettings(project));
+    }
+
+    public static int getIndent(CodeStyleSettings settings) {
+        var options = settings.getIndentOptions(JjtemplateFileType.INSTANCE);
         if (options == null) {
             return DEFAULT_INDENT;
         }
         return normalize(options.INDENT_SIZE);
     }
 
+    /**
+     * @return tab width when the settings indent with tab characters, or 0 when they indent with spaces
+     */
+    public static int getTabSize(CodeStyleSettings settings) {
+        var options = settings.getIndentOptions(JjtemplateFileType.INSTANCE);
+        if (options == null || !options.USE_TAB_CHARACTER) {
+            return 0;
+        }
+        return Math.max(options.TAB_SIZE, 1);
+    }
+
     public static void setIndent(Project project, int indent) {
         var options = CodeStyle.getSettings(project).getIndentOptions(JjtemplateFileType.INSTANCE);
         if (options == null) {
@@ -0,0 +1,53 @@
+package io.github.sibmaks.jjtemplate.idea.toolwindow;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Options of the JJTemplate tool window's compile-and-render preview.
+ */
+@Service(Service.Level.APP)
+@State(name = "JjtemplatePreviewSettings", storages = @Storage("jjtemplate.xml"))
+public final class JjtemplatePreviewSettings implements PersistentStateComponent<JjtemplatePreviewSettings.Options> {
+    public static final int DEFAULT_TIMEOUT_SECONDS = 60;
+    public static final int MAX_TIMEOUT_SECONDS = 3600;
+
+    private Options options = new Options();
+
+    public static @NotNull JjtemplatePreviewSettings getInstance() {
+        return ApplicationManager.getApplication().getService(JjtemplatePreviewSettings.class);
+    }
+
+    @Override
+    public @NotNull Options getState() {
+        return options;
+    }
+
+    @Override
+    public void loadState(@NotNull Options state) {
+        this.options = state;
+    }
+
+    /**
+     * @return how long parsing, compiling and rendering may take in total before the preview gives up
+     */
+    public int getTimeoutSeconds() {
+        return normalizeTimeout(options.timeoutSeconds);
+    }
+
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        options.timeoutSeconds = normalizeTimeout(timeoutSeconds);
+    }
+
+    public static int normalizeTimeout(int timeoutSeconds) {
+        return Math.max(1, Math.min(timeoutSeconds, MAX_TIMEOUT_SECONDS));
+    }
+
+    public static final class Options {
+        public int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+    }
+}
@@ -3,12 +3,10 @@ package io.github.sibmaks.jjtemplate.idea.toolwindow;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.core.util.DefaultIndenter;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.intellij.json.JsonFileType;
-import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditorManager;
@@ -18,12 +16,11 @@ import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
-import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.ui.EditorTextField;
 import com.intellij.ui.content.ContentFactory;
-import io.github.sibmaks.jjtemplate.compiler.api.TemplateCompiler;
 import io.github.sibmaks.jjtemplate.compiler.api.TemplateScript;
 import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateFileType;
+import io.github.sibmaks.jjtemplate.idea.lang.JjtemplateJson;
 import io.github.sibmaks.jjtemplate.lexer.TemplateLexer;
 import io.github.sibmaks.jjtemplate.lexer.api.Keyword;
 import io.github.sibmaks.jjtemplate.lexer.api.Token;
@@ -37,10 +34,7 @@ import java.util.List;
 import java.util.regex.Pattern;
 
 public final class JjtemplateSideMenuToolWindowFactory implements ToolWindowFactory, DumbAware {
-    private static final Logger LOG = Logger.getInstance(JjtemplateSideMenuToolWindowFactory.class);
-    private static final ObjectMapper MAPPER = new ObjectMapper()
-            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    private static final TemplateCompiler COMPILER = TemplateCompiler.getInstance();
+    private static final ObjectMapper MAPPER = JjtemplateJson.MAPPER;
     private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
     };
     private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
@@ -66,10 +60,23 @@ public final class JjtemplateSideMenuToolWindowFactory implements ToolWindowFact
             formatContextButton.addActionListener(event -> formatContextJson(project, contextInput));
             var generateContextButton = new JButton("Generate Context");
             generateContextButton.addActionListener(event -> generateContext(project, contextInput));
+            var settings = JjtemplatePreviewSettings.getInstance();
+            var timeoutInput = new JSpinner(new SpinnerNumberModel(
+                    settings.getTimeoutSeconds(),
+                    1,
+                    JjtemplatePreviewSettings.MAX_TIMEOUT_SECONDS,
+                    10
+            ));
+            timeoutInput.setToolTipText("Compile and render timeout, seconds");
+            timeoutInput.addChangeListener(
+                    event -> settings.setTimeoutSeconds(((Number) timeoutInput.getValue()).intValue())
+            );
             var compileButton = new JButton("Compile");
-            compileButton.addActionListener(event -> compileCurrentFile(project, contextInput));
+            compileButton.addActionListener(event -> compileCurrentFile(project, contextInput, compileButton));
             actionsPanel.add(formatContextButton);
             actionsPanel.add(generateContextButton);
+            actionsPanel.add(new JLabel("Timeout, s"));
+            actionsPanel.add(timeoutInput);
             actionsPanel.add(compileButton);
             panel.add(actionsPanel, BorderLayout.SOUTH);
             return panel;
@@ -80,37 +87,45 @@ public final class JjtemplateSideMenuToolWindowFactory implements ToolWindowFact
         }
     }
 
-    private static void compileCurrentFile(@NotNull Project project, @NotNull EditorTextField contextInput) {
-        try {
-            var contextJson = formatContextJson(project, contextInput);
-            if (contextJson == null) {
-                return;
-            }
+    private static void compileCurrentFile(@NotNull Project project,
+                                           @NotNull EditorTextField contextInput,
+                                           @NotNull JButton compileButton) {
+        var sourceFile = getCurrentJjtemplateFile(project);
+        if (sourceFile == null) {
+            return;
+        }
+        var document = FileDocumentManager.getInstance().getDocument(sourceFile);
+        if (document == null) {
+            showError(project, "Unable to read current file.");
+            return;
+        }
 
-            var sourceFile = getCurrentJjtemplateFile(project);
-            if (sourceFile == null) {
-                return;
-            }
-            var document = FileDocumentManager.getInstance().getDocument(sourceFile);
-            if (document == null) {
-                showError(project, "Unable to read current file.");
-                return;
+        var contextDocument = contextInput.getDocument();
+        var contextStamp = contextDocument.getModificationStamp();
+        var request = new JjtemplateCompileTask.Request(
+                sourceFile.getUrl(),
+                sourceFile.getNameWithoutExtension() + "-compiled.json",
+                document.getImmutableCharSequence(),
+                document.getModificationStamp(),
+                contextDocument.getImmutableCharSequence(),
+                JjtemplateIndentOptions.getIndent(project),
+                JjtemplatePreviewSettings.getInstance().getTimeoutSeconds()
+        );
+        compileButton.setEnabled(false);
+        new JjtemplateCompileTask(project, request, new JjtemplateCompileTask.Callback() {
+            @Override
+            public void onContextFormatted(@NotNull String prettyContext) {
+                // Leave the context alone if it was edited while the task ran.
+                if (contextDocument.getModificationStamp() == contextStamp) {
+                    contextInput.setText(prettyContext);
+                }
             }
 
-            var script = MAPPER.readValue(document.getText(), TemplateScript.class);
-            var compiled = COMPILER.compile(script);
-            var context = MAPPER.readValue(contextJson, MAP_TYPE);
-            var rendered = compiled.render(context);
-            var output = createPrettyWriter(JjtemplateIndentOptions.getIndent(project)).writeValueAsString(rendered);
-
-            var outputName = sourceFile.getNameWithoutExtension() + "-compiled.json";
-            var outputFile = new LightVirtualFile(outputName, JsonFileType.INSTANCE, output);
-            outputFile.setWritable(false);
-            FileEditorManager.getInstance(project).openFile(outputFile, true, true);
-        } catch (Exception exception) {
-            LOG.error("JJTemplate compilation failed", exception);
-            showError(project, "Compilation failed:\n" + getRootMessage(exception));
-        }
+            @Override
+            public void onFinished() {
+                compileButton.setEnabled(true);
+            }
+        }).queue();
     }
 
     private static void generateContext(@NotNull Project project, @NotNull EditorTextField contextInput) {
@@ -463,7 +478,7 @@ public final class JjtemplateSideMenuToolWindowFactory implements ToolWindowFact
         return !"jjt".equalsIgnoreCase(extension) && !"jjtemplate".equalsIgnoreCase(extension);
     }
 
-    private static @NotNull ObjectWriter createPrettyWriter(int jsonIndent) {
+    static @NotNull ObjectWriter createPrettyWriter(int jsonIndent) {
         var indent = " ".repeat(JjtemplateIndentOptions.normalize(jsonIndent));
         var indenter = new DefaultIndenter(indent, DefaultIndenter.SYS_LF);
         var printer = new DefaultPrettyPrinter()
@@ -472,11 +487,11 @@ public final class JjtemplateSideMenuToolWindowFactory implements ToolWindowFact
         return MAPPER.writer(printer);
     }
 
-    private static void showError(@NotNull Project project, @NotNull String message) {
+    static void showError(@NotNull Project project, @NotNull String message) {
         Messages.showErrorDialog(project, message, "JJTemplate");
     }
 
-    private static @NotNull String getRootMessage(@NotNull Throwable throwable) {
+    static @NotNull String getRootMessage(@NotNull Throwable throwable) {
         var cursor = throwable;
         while (cursor.getCause() != null && cursor.getCause() != cursor) {
             cursor = cursor.getCause();
@@ -0,0 +1,239 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import io.github.sibmaks.jjtemplate.lexer.TemplateLexer;
+import io.github.sibmaks.jjtemplate.lexer.api.TokenType;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the formatting engines agree with the formatter they replaced: {@code format}, the whitespace edits
+ * of {@code computeEdits} for the whole text and for every partial range, and the streaming formatter fed one
+ * character at a time. The reference is the original whole-text formatter, kept here as {@link #baselineFormat}.
+ */
+final class JjtemplateFormatterParityTest {
+    private static final int[] INDENT_SIZES = {2, 4};
+
+    static Stream<Arguments> corpus() {
+        return Stream.of(
+                        "",
+                        "{}",
+                        "[ ]",
+                        "{\"a\":1,\"b\":[1,2,{}],\"c\":{\"d\":null}}",
+                        "{\n  \"a\": 1,\n  \"b\": [\n    1,\n    2\n  ]\n}",
+                        "  {   \"a\"  :  [ [ ] , { } , [ 1 ] ]  }  ",
+                        "{\"escaped\":\"say \\\"hi\\\" \\\\\",\"next\":\"{not a block}\"}",
+                        "{\"a\":{{ .x }},\"b\":{{? .flag }},\"c\":{. .items }}}",
+                        "{{{ .key }}:{{ .value }}}",
+                        "[{{ .a }},{{ .b | upper }},{{ format('x', 1) }}]",
+                        "{\"a\":{{ '}}' }},\"b\":{{ \"]}\" }}}",
+                        "{\"a\":{{ 'outer {{ .inner }} tail' }},\"b\":[{{ \"x {{ 'y' }} z\" }}]}",
+                        "{\"a\":\"pre {{ .x }} post\",\"b\":\"{{ 'q {{ .y }} r' }}\"}",
+                        "{\"a\":{\"b\":{\"c\":[{\"d\":{{ .deep }}},[]]}},\"e\":[[1],[2,[3]]]}",
+                        "{\"a\":{{ .x }}}",
+                        "[{{ .x }}]",
+                        "{\"a\":[1,{{ .open",
+                        "{\"a\":\"unterminated"
+                )
+                .flatMap(source -> Arrays.stream(INDENT_SIZES)
+                        .mapToObj(indentSize -> Arguments.of(source, indentSize)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void formatMatchesBaseline(String source, int indentSize) {
+        assertEquals(baselineFormat(source, indentSize), JjtemplateJsonLikeFormatter.format(source, indentSize));
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void streamingMatchesBaseline(String source, int indentSize) throws IOException {
+        var expected = baselineFormat(source, indentSize);
+
+        var out = new StringBuilder();
+        var formatter = new JjtemplateStreamingFormatter(out, indentSize);
+        for (int i = 0; i < source.length(); i++) {
+            formatter.accept(source.subSequence(i, i + 1));
+        }
+        formatter.finish();
+        assertEquals(expected, out.toString(), "fed one character at a time");
+
+        var writer = new StringWriter();
+        JjtemplateStreamingFormatter.format(new StringReader(source), writer, indentSize);
+        assertEquals(expected, writer.toString(), "read from a reader");
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void wholeRangeEditsMatchBaseline(String source, int indentSize) {
+        var edits = computeEdits(source, indentSize, 0, source.length());
+        assertEquals(baselineFormat(source, indentSize), apply(source, edits));
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void partialRangeEditsAreTheWholeRangeEditsTouchingIt(String source, int indentSize) {
+        var allEdits = computeEdits(source, indentSize, 0, source.length());
+        for (int rangeStart = 0; rangeStart <= source.length(); rangeStart++) {
+            for (var rangeEnd : new int[]{rangeStart, Math.min(rangeStart + 5, source.length()), source.length()}) {
+                var expected = new ArrayList<JjtemplateJsonLikeFormatter.WhitespaceEdit>();
+                for (var edit : allEdits) {
+                    if (edit.end() >= rangeStart && edit.start() <= rangeEnd) {
+                        expected.add(edit);
+                    }
+                }
+                assertEquals(expected, computeEdits(source, indentSize, rangeStart, rangeEnd),
+                        "range [" + rangeStart + ", " + rangeEnd + "] of " + source);
+            }
+        }
+    }
+
+    private static List<JjtemplateJsonLikeFormatter.WhitespaceEdit> computeEdits(String source,
+                                                                               int indentSize,
+                                                                               int rangeStart,
+                                                                               int rangeEnd) {
+        return JjtemplateJsonLikeFormatter.computeEdits(
+                source,
+                indentSize,
+                0,
+                TemplateSpanIndex.build(source),
+                JsonStructureIndex.build(source),
+                rangeStart,
+                rangeEnd
+        );
+    }
+
+    private static String apply(String source, List<JjtemplateJsonLikeFormatter.WhitespaceEdit> edits) {
+        var out = new StringBuilder();
+        var copied = 0;
+        for (var edit : edits) {
+            out.append(source, copied, edit.start()).append(edit.replacement());
+            copied = edit.end();
+        }
+        return out.append(source, copied, source.length()).toString();
+    }
+
+    // The whole-text formatter the engines replaced, as it was before they were introduced.
+    private static String baselineFormat(String source, int indentSize) {
+        if (source.isEmpty()) {
+            return "";
+        }
+        var indentStep = Math.max(indentSize, 1);
+        var out = new StringBuilder();
+        var indentLevel = 0;
+        var indentAppliedByBracket = new ArrayDeque<Boolean>();
+        var index = 0;
+        while (index < source.length()) {
+            var ch = source.charAt(index);
+            if (Character.isWhitespace(ch)) {
+                index++;
+                continue;
+            }
+            if (ch == '"') {
+                var end = index + 1;
+                var escaped = false;
+                while (end < source.length()) {
+                    var next = source.charAt(end++);
+                    if (escaped) {
+                        escaped = false;
+                    } else if (next == '\\') {
+                        escaped = true;
+                    } else if (next == '"') {
+                        break;
+                    }
+                }
+                out.append(source, index, end);
+                index = end;
+                continue;
+            }
+            if (TemplateTextScanner.isTemplateStart(source, index)) {
+                var end = baselineTemplateEnd(source, index);
+                end = end < 0 ? source.length() : end;
+                out.append(source, index, end);
+                index = end;
+                continue;
+            }
+            switch (ch) {
+                case '{', '[' -> {
+                    out.append(ch);
+                    var close = ch == '{' ? '}' : ']';
+                    var next = index + 1;
+                    while (next < source.length() && Character.isWhitespace(source.charAt(next))) {
+                        next++;
+                    }
+                    if (next >= source.length() || source.charAt(next) == close) {
+                        indentAppliedByBracket.addLast(false);
+                    } else {
+                        indentAppliedByBracket.addLast(true);
+                        indentLevel++;
+                        appendNewlineWithIndent(out, indentLevel * indentStep);
+                    }
+                }
+                case '}', ']' -> {
+                    if (!indentAppliedByBracket.isEmpty() && indentAppliedByBracket.removeLast()) {
+                        indentLevel = Math.max(0, indentLevel - 1);
+                        appendNewlineWithIndent(out, indentLevel * indentStep);
+                    }
+                    out.append(ch);
+                }
+                case ',' -> {
+                    out.append(',');
+                    appendNewlineWithIndent(out, indentLevel * indentStep);
+                }
+                case ':' -> out.append(": ");
+                default -> out.append(ch);
+            }
+            index++;
+        }
+        return out.toString();
+    }
+
+    // The block end as the upstream lexer sees it, falling back to counting braces when it rejects the block.
+    private static int baselineTemplateEnd(String source, int start) {
+        try {
+            var depth = 0;
+            for (var token : new TemplateLexer(source.substring(start)).tokens()) {
+                if (token.type == TokenType.OPEN_EXPR
+                        || token.type == TokenType.OPEN_COND
+                        || token.type == TokenType.OPEN_SPREAD) {
+                    depth++;
+                } else if (token.type == TokenType.CLOSE && --depth == 0) {
+                    return start + token.end;
+                }
+            }
+            return -1;
+        } catch (RuntimeException e) {
+            var depth = 0;
+            for (int i = start; i + 1 < source.length(); i++) {
+                if (TemplateTextScanner.isTemplateStart(source, i)) {
+                    depth++;
+                    i++;
+                } else if (source.charAt(i) == '}' && source.charAt(i + 1) == '}') {
+                    i++;
+                    if (--depth == 0) {
+                        return i + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static void appendNewlineWithIndent(StringBuilder out, int spaces) {
+        if (!out.isEmpty() && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+        out.append(" ".repeat(spaces));
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.sibmaks.jjtemplate.idea.lang;
+
+import com.intellij.psi.TokenType;
+import io.github.sibmaks.jjtemplate.lexer.TemplateLexer;
+import io.github.sibmaks.jjtemplate.lexer.api.Token;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Lexes a corpus of templates with {@link JjtemplateSyntaxLexer} and with the upstream {@link TemplateLexer} and
+ * compares the expression tokens: type and range. Each template is checked both as bare JSON text and encoded in a
+ * JSON string, where native ranges are mapped back to the decoded string the upstream lexer sees.
+ * <p>
+ * Upstream covers everything outside blocks with {@code TEXT} and keeps a string literal, templates nested in it
+ * included, as one {@code STRING}; the native tokens are folded the same way before comparing. When upstream
+ * rejects a template, the native lexer must still cover the whole text and give the block up at the end of its
+ * JSON string.
+ */
+final class JjtemplateSyntaxLexerConformanceTest {
+    private static final String JSON_PREFIX = "{\"value\": \"";
+    private static final String JSON_SUFFIX = "\", \"next\": 1}";
+
+    static Stream<String> corpus() {
+        return Stream.of(
+                "{{ .name }}",
+                "Hello, {{ .user.name | upper }}!",
+                "{{ .a }} and {{ .b }}",
+                "{? .enabled }}",
+                "{. .items }}",
+                "{{ .flag ? 'yes' : 'no' }}",
+                "{{ .value | default 'none' }}",
+                "{{ format('x', 1, 2.5, -3, 1e3, true, false, null) }}",
+                "{{ 'single' }}",
+                "{{ \"double\" }}",
+                "{{ 'say \"hi\"' }}",
+                "{{ \"it's\" }}",
+                "{{ 'a' }}{{ \"b\" }}",
+                "{{ 'escaped \\' quote' }}",
+                "{{ 'outer {{ .inner }} tail' }}",
+                "{{ \"outer {{ .inner | upper }} tail\" }}",
+                "{{ 'a {{ \"b {{ .c }}\" }} d' }}",
+                "{{ '{? .flag }}' }}",
+                "prefix {{ .a",
+                "{{ .a | upper",
+                "{{ 'open string }}",
+                "{{ 'outer {{ .inner' }}",
+                "{{ .a }} tail {{",
+                "{? .a ? 'x"
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void matchesUpstreamAsJsonText(String template) {
+        var nativeTokens = lex(template, 0, template.length(), null);
+        compare(template, nativeTokens, template.length());
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void matchesUpstreamInJsonString(String template) {
+        var encoded = encode(template);
+        var text = JSON_PREFIX + encoded.text() + JSON_SUFFIX;
+        var contentStart = JSON_PREFIX.length();
+        var nativeTokens = lex(text, contentStart, contentStart + encoded.text().length(), encoded.decodedOffsets());
+        compare(template, nativeTokens, text.length());
+        assertJsonStringEndsAt(text, contentStart + encoded.text().length());
+    }
+
+    private static void compare(String template, List<NativeToken> nativeTokens, int textLength) {
+        List<Token> upstreamTokens;
+        try {
+            upstreamTokens = new TemplateLexer(template).tokens();
+        } catch (RuntimeException e) {
+            // Upstream rejects the template: the editor lexer has to recover instead.
+            assertCovers(nativeTokens, textLength);
+            return;
+        }
+        var expected = new ArrayList<String>();
+        for (var token : upstreamTokens) {
+            if (token.type != io.github.sibmaks.jjtemplate.lexer.api.TokenType.TEXT) {
+                expected.add(describe(token.type.name(), token.start, token.end));
+            }
+        }
+        assertEquals(expected, fold(nativeTokens), template);
+        assertCovers(nativeTokens, textLength);
+    }
+
+    // Folds native tokens into the upstream view: JSON text is dropped, and string literal pieces together with
+    // the blocks nested in them become one STRING.
+    private static List<String> fold(List<NativeToken> tokens) {
+        var result = new ArrayList<String>();
+        var stringStart = -1;
+        var stringEnd = -1;
+        for (var token : tokens) {
+            if (token.decodedStart() < 0) {
+                continue;
+            }
+            var mode = JjtemplateSyntaxLexer.getMode(token.state());
+            var depth = JjtemplateSyntaxLexer.getDepth(token.state());
+            var inExpression = mode == JjtemplateSyntaxLexer.STATE_EXPRESSION
+                    || mode == JjtemplateSyntaxLexer.STATE_EXPRESSION_STRING;
+            if (inExpression && (depth > 1 || mode == JjtemplateSyntaxLexer.STATE_EXPRESSION_STRING)) {
+                stringEnd = token.decodedEnd();
+                continue;
+            }
+            if (stringStart >= 0) {
+                result.add(describe("STRING", stringStart, stringEnd));
+                stringStart = -1;
+            }
+            if (!inExpression && !isTemplateOpen(token.type())) {
+                continue;
+            }
+            if (token.type().equals("STRING")) {
+                stringStart = token.decodedStart();
+                stringEnd = token.decodedEnd();
+            } else if (!token.type().equals(TokenType.WHITE_SPACE.toString())) {
+                result.add(describe(token.type(), token.decodedStart(), token.decodedEnd()));
+            }
+        }
+        if (stringStart >= 0) {
+            result.add(describe("STRING", stringStart, stringEnd));
+        }
+        return result;
+    }
+
+    private static void assertCovers(List<NativeToken> tokens, int textLength) {
+        var offset = 0;
+        for (var token : tokens) {
+            assertEquals(offset, token.start(), "gap or overlap before " + token);
+            assertTrue(token.end() > token.start(), "empty token " + token);
+            offset = token.end();
+        }
+        assertEquals(textLength, offset, "text not fully covered");
+    }
+
+    // Whatever the block does, the quote closing the JSON string ends it and the rest of the object is plain JSON.
+    private static void assertJsonStringEndsAt(String text, int quoteOffset) {
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        while (lexer.getTokenType() != null && lexer.getTokenEnd() <= quoteOffset) {
+            lexer.advance();
+        }
+        assertEquals(JjtemplateTokenTypes.JSON_STRING, lexer.getTokenType(), text);
+        assertEquals(quoteOffset + 1, lexer.getTokenEnd(), text);
+        for (lexer.advance(); lexer.getTokenType() != null; lexer.advance()) {
+            assertEquals(JjtemplateSyntaxLexer.STATE_JSON, lexer.getState(), text);
+        }
+    }
+
+    // Tokens outside [from, to) get a decoded range of -1; inside it offsets are mapped through decodedOffsets.
+    private static List<NativeToken> lex(String text, int from, int to, int[] decodedOffsets) {
+        var tokens = new ArrayList<NativeToken>();
+        var lexer = new JjtemplateSyntaxLexer();
+        lexer.start(text, 0, text.length(), JjtemplateSyntaxLexer.STATE_JSON);
+        for (; lexer.getTokenType() != null; lexer.advance()) {
+            var start = lexer.getTokenStart();
+            var end = lexer.getTokenEnd();
+            var inside = start >= from && end <= to;
+            var decodedStart = !inside ? -1 : decodedOffsets == null ? start : decodedOffsets[start - from];
+            var decodedEnd = !inside ? -1 : decodedOffsets == null ? end : decodedOffsets[end - from];
+            tokens.add(new NativeToken(lexer.getTokenType().toString(), start, end, lexer.getState(),
+                    decodedStart, decodedEnd));
+        }
+        return tokens;
+    }
+
+    private static EncodedString encode(String value) {
+        var text = new StringBuilder();
+        var decodedOffsets = new int[value.length() * 2 + 1];
+        for (int i = 0; i < value.length(); i++) {
+            var ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                decodedOffsets[text.length()] = i;
+                text.append('\\');
+            }
+            decodedOffsets[text.length()] = i;
+            text.append(ch);
+        }
+        decodedOffsets[text.length()] = value.length();
+        return new EncodedString(text.toString(), decodedOffsets);
+    }
+
+    private static boolean isTemplateOpen(String type) {
+        return type.equals("OPEN_EXPR") || type.equals("OPEN_COND") || type.equals("OPEN_SPREAD");
+    }
+
+    private static String describe(String type, int start, int end) {
+        return type + "[" + start + ", " + end + ")";
+    }
+
+    private record NativeToken(String type, int start, int end, int state, int decodedStart, int decodedEnd) {
+    }
+
+    private record EncodedString(String text, int[] decodedOffsets) {
+    }
+}